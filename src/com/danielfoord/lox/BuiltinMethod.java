@@ -0,0 +1,48 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.globals.GlobalCallable;
+
+/**
+ * A native method of a built in type, bound to the value it was looked up on.
+ * Methods take at most two arguments and implement the fixed arity entry points they need.
+ * Like natives, they fail with plain Java exceptions that the interpreter reports at the call.
+ */
+abstract class BuiltinMethod implements GlobalCallable {
+
+    private final String type;
+    final String name;
+    private final int arity;
+
+    BuiltinMethod(String type, String name, int arity) {
+        this.type = type;
+        this.name = name;
+        this.arity = arity;
+    }
+
+    @Override
+    public String getName() {
+        return type + "." + name;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) throws Exception {
+        switch (arity) {
+            case 0:
+                return call0(interpreter);
+            case 1:
+                return call1(interpreter, arguments[0]);
+            default:
+                return call2(interpreter, arguments[0], arguments[1]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<fn natve::" + getName() + ">";
+    }
+}
@@ -0,0 +1,15 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.functions.LoxCallable;
+
+/**
+ * A value of a built in type, such as a list or a map, whose methods are natives bound to it.
+ */
+interface BuiltinValue {
+
+    // The type as errors name it
+    String typeName();
+
+    // A native method bound to this value, or null when the type has no such method
+    LoxCallable method(String name);
+}
@@ -0,0 +1,113 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.functions.LoxCallable;
+import com.danielfoord.lox.functions.LoxFunction;
+import com.danielfoord.lox.globals.GlobalCallable;
+
+import java.util.Arrays;
+
+/**
+ * Lox level shadow stack maintained by the interpreter.
+ * Each frame holds the callee being run and the line it's currently at, which is the line of the call it made
+ * into the frame above it. Pushing a frame only stores a reference, callees are described lazily when read.
+ */
+public class CallStack {
+
+    private static final String SCRIPT = "<script>";
+
+    private Object[] callees = new Object[64];
+    private int[] lines = new int[64];
+    // Read without synchronization by the sampling profiler, a slightly stale view is fine there
+    private int depth = 1;
+    // Frames copied from the stack of the caller a worker runs for, they're that stack's calls
+    private final int base;
+
+    public CallStack() {
+        callees[0] = SCRIPT;
+        base = 1;
+    }
+
+    // Starts with the frames of another stack, for a worker running callbacks on behalf of a native
+    CallStack(CallStack caller) {
+        callees = Arrays.copyOf(caller.callees, Math.max(64, caller.depth * 2));
+        lines = Arrays.copyOf(caller.lines, callees.length);
+        depth = caller.depth;
+        base = caller.depth;
+    }
+
+    public void push(LoxCallable callee, int callLine) {
+        if (depth == callees.length) {
+            callees = Arrays.copyOf(callees, depth * 2);
+            lines = Arrays.copyOf(lines, depth * 2);
+        }
+        lines[depth - 1] = callLine;
+        callees[depth++] = callee;
+    }
+
+    public void pop() {
+        callees[--depth] = null;
+    }
+
+    // The line the innermost frame was called from, where a native calling back into Lox is
+    int callerLine() {
+        return depth > 1 ? lines[depth - 2] : 0;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    // Calls in progress on this stack itself, for the call depth metric
+    public int calls() {
+        return depth - base;
+    }
+
+    /**
+     * Folded form of the current stack, outermost frame first, e.g. "<script>;main:12;fib:1".
+     */
+    public String fold() {
+        Object[] callees = this.callees;
+        int depth = Math.min(this.depth, callees.length);
+
+        var builder = new StringBuilder();
+        for (var i = 0; i < depth; i++) {
+            Object callee = callees[i];
+            if (callee == null) break; // Popped while we were reading
+            if (i > 0) builder.append(';');
+            builder.append(describe(callee));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Lox stack trace, innermost frame first, with the innermost frame at the given line.
+     * Empty for top level code, where the reported line already says everything.
+     */
+    public String trace(int line) {
+        if (depth == 1) return "";
+
+        var builder = new StringBuilder();
+        for (var i = depth - 1; i >= 0; i--) {
+            builder.append("\n    at ")
+                    .append(describe(callees[i]))
+                    .append(" (line ")
+                    .append(i == depth - 1 ? line : lines[i])
+                    .append(')');
+        }
+        return builder.toString();
+    }
+
+    static String describe(Object callee) {
+        if (callee instanceof LoxFunction) {
+            var function = (LoxFunction) callee;
+            return function.getName() + ":" + function.getLine();
+        }
+        if (callee instanceof LoxClass) {
+            return ((LoxClass) callee).name;
+        }
+        if (callee instanceof GlobalCallable) {
+            return "native::" + ((GlobalCallable) callee).getName();
+        }
+        return callee.toString();
+    }
+}
@@ -0,0 +1,146 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.functions.LoxCallable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue of values for tasks to talk over. send waits while the channel is full and receive while
+ * it's empty. Once closed, sending fails, and receive drains what's left and then returns nil.
+ *
+ * Waits wake up now and then to check the run's limits, so a task stuck on a channel nobody else uses can
+ * still be cancelled or time out. The lock parks rather than pins, which keeps virtual threads cheap to block.
+ */
+public final class Channel implements BuiltinValue {
+
+    // Rough heap size of a channel and its lock, not counting the buffer
+    static final long CHANNEL = 160;
+    // How long a wait sleeps before it checks the limits again
+    private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final Object[] buffer;
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    Channel(int capacity) {
+        this.buffer = new Object[capacity];
+    }
+
+    void send(Interpreter interpreter, Object value) throws InterruptedException {
+        lock.lock();
+        try {
+            while (count == buffer.length && !closed) {
+                interpreter.checkLimits();
+                notFull.awaitNanos(WAIT_NANOS);
+            }
+            if (closed)
+                throw new IllegalStateException("Can't send on a closed channel.");
+            buffer[(head + count) % buffer.length] = value;
+            count++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Object receive(Interpreter interpreter) throws InterruptedException {
+        lock.lock();
+        try {
+            while (count == 0 && !closed) {
+                interpreter.checkLimits();
+                notEmpty.awaitNanos(WAIT_NANOS);
+            }
+            if (count == 0)
+                return null;
+            Object value = buffer[head];
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            count--;
+            notFull.signal();
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int capacity() {
+        return buffer.length;
+    }
+
+    // What's waiting to be received, oldest first
+    Object[] contents() {
+        lock.lock();
+        try {
+            Object[] contents = new Object[count];
+            for (int i = 0; i < count; i++) {
+                contents[i] = buffer[(head + i) % buffer.length];
+            }
+            return contents;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String typeName() {
+        return "channel";
+    }
+
+    @Override
+    public LoxCallable method(String name) {
+        switch (name) {
+            case "receive":
+            case "close":
+                return new Method(this, name, 0);
+            case "send":
+                return new Method(this, name, 1);
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+
+    private static final class Method extends BuiltinMethod {
+        private final Channel channel;
+
+        Method(Channel channel, String name, int arity) {
+            super("channel", name, arity);
+            this.channel = channel;
+        }
+
+        @Override
+        public Object call0(Interpreter interpreter) throws InterruptedException {
+            if (name.equals("receive"))
+                return channel.receive(interpreter);
+            channel.close();
+            return null;
+        }
+
+        @Override
+        public Object call1(Interpreter interpreter, Object value) throws InterruptedException {
+            channel.send(interpreter, value);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.danielfoord.lox;
+
+/**
+ * Thrown by LoxEngine.compile when the source has syntax or resolution errors.
+ * The message holds every error reported, one per line, in the same form the command line prints them.
+ */
+public class CompileError extends RuntimeException {
+    private static final long serialVersionUID = 7012475386309126413L;
+
+    public CompileError(String message) {
+        super(message);
+    }
+}
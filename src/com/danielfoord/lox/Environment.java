@@ -1,55 +1,89 @@
 package com.danielfoord.lox;
 
+import com.danielfoord.lox.functions.LoxCallable;
+
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Environment {
 
+    // Stands for nil in the global scope, whose map can't hold null
+    static final Object NIL = new Object();
+
     public final Environment enclosing;
-    private final HashMap<String, Object> values = new HashMap<>();
+    // The global scope is read by the threads of tasks and parallel natives while the script's own thread
+    // defines and assigns globals, so it's a concurrent map. Other scopes belong to one call on one thread
+    private final Map<String, Object> values;
+    // Replaced whenever a callable binding is replaced, call sites use it to validate their cached callee.
+    // A fresh object rather than a count, so versions of different environments never match
+    private volatile Object version = new Object();
 
     public Environment() {
         this.enclosing = null;
+        this.values = new ConcurrentHashMap<>();
     }
 
     public Environment(Environment enclosing) {
         this.enclosing = enclosing;
+        this.values = new HashMap<>();
     }
 
     public void define(String name, Object value) {
-        values.put(name, value);
+        put(name, value);
     }
 
-    public Object get(Token identifier) {
-        if (values.containsKey(identifier.lexeme)) {
-            return values.get(identifier.lexeme);
+    public Object get(String name, int line) {
+        Object value = values.get(name);
+        if (value != null) {
+            return value == NIL ? null : value;
+        }
+        if (values.containsKey(name)) {
+            return null;
         }
 
         if (enclosing != null) {
-            return enclosing.get(identifier);
+            return enclosing.get(name, line);
         }
 
-        throw new RuntimeError(identifier, "Undefined variable '" + identifier.lexeme + "'.");
+        throw new RuntimeError(line, "Undefined variable '" + name + "'.");
     }
 
-    public Object assign(Token identifier, Object value) {
-        if (values.containsKey(identifier.lexeme)) {
-            values.put(identifier.lexeme, value);
+    public Object assign(String name, int line, Object value) {
+        if (values.containsKey(name)) {
+            put(name, value);
             return value;
         }
 
         if (enclosing != null) {
-            return enclosing.assign(identifier, value);
+            return enclosing.assign(name, line, value);
         }
 
-        throw new RuntimeError(identifier, "Undefined variable '" + identifier.lexeme + "'.");
+        throw new RuntimeError(line, "Undefined variable '" + name + "'.");
     }
 
     public Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+        Object value = ancestor(distance).values.get(name);
+        return value == NIL ? null : value;
+    }
+
+    public void assignAt(int distance, String name, Object value) {
+        ancestor(distance).put(name, value);
     }
 
-    public void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    public Object version() {
+        return version;
+    }
+
+    // The bindings in this scope only, for walking the object graph. Nil is NIL in the global scope
+    Map<String, Object> values() {
+        return values;
+    }
+
+    private void put(String name, Object value) {
+        if (values.put(name, value == null && enclosing == null ? NIL : value) instanceof LoxCallable) {
+            version = new Object();
+        }
     }
 
     private Environment ancestor(int distance) {
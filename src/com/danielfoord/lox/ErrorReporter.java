@@ -0,0 +1,73 @@
+package com.danielfoord.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Collects the errors of one run and writes them out as they happen.
+ * Each run gets its own, so scripts run side by side in one process don't see each other's errors.
+ */
+public class ErrorReporter {
+
+    private final PrintStream err;
+    // Only for a reporter made by deferred, what it holds until it's forwarded
+    private final ByteArrayOutputStream held;
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+
+    public ErrorReporter(PrintStream err) {
+        this(err, null);
+    }
+
+    private ErrorReporter(PrintStream err, ByteArrayOutputStream held) {
+        this.err = err;
+        this.held = held;
+    }
+
+    // Holds errors instead of writing them, for a pass whose errors only count if another one succeeds
+    static ErrorReporter deferred() {
+        var held = new ByteArrayOutputStream();
+        return new ErrorReporter(new PrintStream(held, true, StandardCharsets.UTF_8), held);
+    }
+
+    // Writes out what a deferred reporter held, as if it had been reported here
+    void forward(ErrorReporter deferred) {
+        err.print(deferred.held.toString(StandardCharsets.UTF_8));
+        hadError |= deferred.hadError;
+    }
+
+    public boolean hadError() {
+        return hadError;
+    }
+
+    public boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    private void report(int line, String where, String message) {
+        err.println("[line " + line + "] Error" + where + ": " + message);
+        hadError = true;
+    }
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            error(token.line, token.lexeme, message);
+        }
+    }
+
+    void error(int line, String lexeme, String message) {
+        report(line, " at '" + lexeme + "'", message);
+    }
+
+    void runtimeError(RuntimeError error) {
+        err.println("Runtime Error: " + error.getMessage() + "\n[line " + error.line + "]" + error.getTrace());
+        hadRuntimeError = true;
+    }
+}
@@ -0,0 +1,236 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.functions.LoxCallable;
+import com.danielfoord.lox.globals.LoxNative;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * A fixed length array of numbers kept outside the Java heap, either in a direct buffer or mapped from a
+ * file. The collector never scans or copies the elements, a direct buffer is freed when the array that
+ * owns it is collected, and a mapped file is read and written in place.
+ *
+ * The bulk methods run as plain Java loops over the buffer, which the JIT compiles to tight native code,
+ * instead of a visitBinaryExpr per element. Sums and dot products keep four partial results, so additions
+ * overlap instead of each waiting on the last; that can round differently from adding in order.
+ */
+public final class Float64Array implements BuiltinValue {
+
+    // Rough heap size of the array and its buffer objects, the elements themselves are counted in full
+    // for a direct buffer and not at all for a file
+    static final long ARRAY = 96;
+    private static final int MAX_LENGTH = Integer.MAX_VALUE / Double.BYTES;
+
+    private final DoubleBuffer data;
+    private final int length;
+    // Only for arrays mapped from a file
+    private final MappedByteBuffer mapping;
+
+    private Float64Array(DoubleBuffer data, MappedByteBuffer mapping) {
+        this.data = data;
+        this.length = data.capacity();
+        this.mapping = mapping;
+    }
+
+    @LoxNative("Float64Array")
+    public static Float64Array allocate(Interpreter interpreter, int length) {
+        if (length < 0 || length > MAX_LENGTH)
+            throw new IllegalArgumentException("Float64Array length must be between 0 and " + MAX_LENGTH + ".");
+        interpreter.reserve(ARRAY + (long) length * Double.BYTES);
+        // Direct buffers start zeroed
+        return new Float64Array(ByteBuffer.allocateDirect(length * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer(), null);
+    }
+
+    // Files hold little endian doubles whatever the machine, so they can be shared
+    public static Float64Array mapped(MappedByteBuffer mapping) {
+        return new Float64Array(mapping.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer(), mapping);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    // Mapped elements live in the page cache rather than memory the run is charged for
+    boolean isMapped() {
+        return mapping != null;
+    }
+
+    public double get(int index) {
+        return data.get(index);
+    }
+
+    public void set(int index, double value) {
+        data.put(index, value);
+    }
+
+    //#region Bulk operations
+    void fill(double value) {
+        for (int i = 0; i < length; i++) {
+            data.put(i, value);
+        }
+    }
+
+    void copyFrom(Float64Array source, int at) {
+        if (at < 0 || at > length - source.length)
+            throw new IllegalArgumentException("Copy out of range.");
+        // Duplicates keep the positions of both buffers untouched, the bulk put is a memory copy
+        data.duplicate().position(at).put(source.data.duplicate().clear());
+    }
+
+    void copyFrom(LoxList source, int at) {
+        if (at < 0 || at > length - source.size())
+            throw new IllegalArgumentException("Copy out of range.");
+        for (int i = 0; i < source.size(); i++) {
+            Object element = source.get(i);
+            if (!(element instanceof Double))
+                throw new IllegalArgumentException("Float64Array elements must be numbers.");
+            data.put(at + i, (double) element);
+        }
+    }
+
+    double sum() {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i <= length - 4; i += 4) {
+            s0 += data.get(i);
+            s1 += data.get(i + 1);
+            s2 += data.get(i + 2);
+            s3 += data.get(i + 3);
+        }
+        for (; i < length; i++) {
+            s0 += data.get(i);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    double dot(Float64Array other) {
+        if (other.length != length)
+            throw new IllegalArgumentException("Float64Arrays must be the same length.");
+        DoubleBuffer a = data, b = other.data;
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i <= length - 4; i += 4) {
+            s0 += a.get(i) * b.get(i);
+            s1 += a.get(i + 1) * b.get(i + 1);
+            s2 += a.get(i + 2) * b.get(i + 2);
+            s3 += a.get(i + 3) * b.get(i + 3);
+        }
+        for (; i < length; i++) {
+            s0 += a.get(i) * b.get(i);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    // nil for an empty array, NaN if any element is
+    Object min() {
+        if (length == 0) return null;
+        double min = data.get(0);
+        for (int i = 1; i < length; i++) {
+            min = Math.min(min, data.get(i));
+        }
+        return min;
+    }
+
+    Object max() {
+        if (length == 0) return null;
+        double max = data.get(0);
+        for (int i = 1; i < length; i++) {
+            max = Math.max(max, data.get(i));
+        }
+        return max;
+    }
+
+    // Writes changes to a mapped file through to the disk, there's nothing to do for other arrays
+    void flush() {
+        if (mapping != null) mapping.force();
+    }
+    //#endregion
+
+    @Override
+    public String typeName() {
+        return "Float64Array";
+    }
+
+    @Override
+    public LoxCallable method(String name) {
+        switch (name) {
+            case "length":
+            case "sum":
+            case "min":
+            case "max":
+            case "flush":
+                return new Method(this, name, 0);
+            case "fill":
+            case "dot":
+                return new Method(this, name, 1);
+            case "copyFrom":
+                return new Method(this, name, 2);
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Float64Array(" + length + ")";
+    }
+
+    private static final class Method extends BuiltinMethod {
+        private final Float64Array array;
+
+        Method(Float64Array array, String name, int arity) {
+            super("Float64Array", name, arity);
+            this.array = array;
+        }
+
+        @Override
+        public Object call0(Interpreter interpreter) {
+            switch (name) {
+                case "length":
+                    return (double) array.length;
+                case "sum":
+                    return array.sum();
+                case "min":
+                    return array.min();
+                case "max":
+                    return array.max();
+                default:
+                    array.flush();
+                    return null;
+            }
+        }
+
+        @Override
+        public Object call1(Interpreter interpreter, Object argument) {
+            if (name.equals("fill")) {
+                array.fill(number(argument));
+                return null;
+            }
+            if (!(argument instanceof Float64Array))
+                throw new IllegalArgumentException("Can only dot a Float64Array with another.");
+            return array.dot((Float64Array) argument);
+        }
+
+        @Override
+        public Object call2(Interpreter interpreter, Object source, Object at) {
+            int start = LoxList.index(at, array.length + 1, "Copy position");
+            if (source instanceof Float64Array) {
+                array.copyFrom((Float64Array) source, start);
+            } else if (source instanceof LoxList) {
+                array.copyFrom((LoxList) source, start);
+            } else {
+                throw new IllegalArgumentException("Can only copy from a Float64Array or a list.");
+            }
+            return null;
+        }
+    }
+
+    static double number(Object value) {
+        if (!(value instanceof Double))
+            throw new IllegalArgumentException("Float64Array elements must be numbers.");
+        return (double) value;
+    }
+}
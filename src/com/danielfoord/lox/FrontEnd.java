@@ -0,0 +1,57 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.metrics.InterpreterMetrics;
+import com.danielfoord.lox.statements.Stmt;
+
+import java.util.List;
+
+/**
+ * Turns source into a resolved program, shared by the command line, the server and the engine.
+ */
+final class FrontEnd {
+
+    // Larger sources are scanned as they are parsed so their tokens are never all held at once
+    private static final int STREAMED_SOURCE_LENGTH = 1 << 20;
+
+    private FrontEnd() {
+    }
+
+    // Returns null when there was a syntax error
+    static List<Stmt> parse(CharSequence source, ErrorReporter reporter, boolean fused)
+    {
+        InterpreterMetrics metrics = InterpreterMetrics.get();
+
+        long start = System.nanoTime();
+        Scanner scanner = new Scanner(source, reporter);
+        // Scanning a streamed source happens during parsing and is counted as parse time
+        List<Token> tokens = source.length() > STREAMED_SOURCE_LENGTH ? scanner.streamTokens() : scanner.scanTokens();
+        long scanned = System.nanoTime();
+        metrics.addScanTime(scanned - start);
+
+        if (fused) {
+            // Resolution errors are held back, like the separate pass they only show when there was no syntax error
+            ErrorReporter resolution = ErrorReporter.deferred();
+            List<Stmt> statements = new Parser(tokens, reporter, new Resolver(resolution)).parse();
+            metrics.addParseTime(System.nanoTime() - scanned);
+            if (reporter.hadError)
+                return null;
+            reporter.forward(resolution);
+            return statements;
+        }
+
+        Parser parser = new Parser(tokens, reporter);
+        List<Stmt> statements = parser.parse();
+        long parsed = System.nanoTime();
+        metrics.addParseTime(parsed - scanned);
+
+        // Stop if there was a syntax error.
+        if (reporter.hadError)
+            return null;
+
+        Resolver resolver = new Resolver(reporter);
+        resolver.resolve(statements);
+        metrics.addResolveTime(System.nanoTime() - parsed);
+
+        return statements;
+    }
+}
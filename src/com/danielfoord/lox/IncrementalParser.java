@@ -0,0 +1,211 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.statements.Stmt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a parsed and resolved program in step with its source text for editors and hot-reload.
+ * The program is split into top level declarations, and an edit only re-scans, re-parses and
+ * re-resolves the declarations it touches. Top level names are globals that are looked up at runtime,
+ * so no other declaration has to be resolved again when one changes. Declarations after an edit that
+ * adds or removes lines are copied with their line numbers shifted rather than parsed again, the trees
+ * already handed out never change.
+ */
+public class IncrementalParser {
+
+    // A top level declaration and the source it was parsed from, from its first character up to the next declaration
+    private static final class Chunk {
+        final int start;
+        final int line;
+        final Stmt statement;
+        final boolean hadError;
+
+        Chunk(int start, int line, Stmt statement, boolean hadError) {
+            this.start = start;
+            this.line = line;
+            this.statement = statement;
+            this.hadError = hadError;
+        }
+    }
+
+    private String source;
+    private final ErrorReporter reporter;
+    private final List<Chunk> chunks = new ArrayList<>();
+    private Map<Stmt, Stmt> moved = Collections.emptyMap();
+
+    public IncrementalParser(String source, ErrorReporter reporter) {
+        this.source = source;
+        this.reporter = reporter;
+        chunks.addAll(parseRegion(0, source.length(), 1));
+    }
+
+    public String source() {
+        return source;
+    }
+
+    public boolean hadError() {
+        for (Chunk chunk : chunks) {
+            if (chunk.hadError) return true;
+        }
+        return false;
+    }
+
+    public List<Stmt> statements() {
+        return statementsOf(chunks);
+    }
+
+    /**
+     * Replaces length characters at offset with the replacement text.
+     * Returns the declarations whose text changed, already resolved, so a running interpreter
+     * can redefine just those. Declarations that only moved to another line are not returned,
+     * their shifted copies are in {@link #moved()}.
+     */
+    public List<Stmt> edit(int offset, int length, String replacement) {
+        if (offset < 0 || length < 0 || offset + length > source.length())
+            throw new IndexOutOfBoundsException("Edit [" + offset + ", " + (offset + length) + ") is outside the source.");
+
+        int lineDelta = countLines(replacement, 0, replacement.length()) - countLines(source, offset, offset + length);
+        int delta = replacement.length() - length;
+        source = source.substring(0, offset) + replacement + source.substring(offset + length);
+
+        moved = Collections.emptyMap();
+        if (chunks.isEmpty()) {
+            chunks.addAll(parseRegion(0, source.length(), 1));
+            return statementsOf(chunks);
+        }
+
+        // Every declaration the edit touches, including both neighbours when it lands on a boundary
+        int first = 0;
+        while (first + 1 < chunks.size() && chunks.get(first + 1).start < offset) first++;
+        int last = first;
+        while (last + 1 < chunks.size() && chunks.get(last + 1).start <= offset + length) last++;
+
+        // Grow the region until it holds whole declarations, an edit can open a block or string that runs into the next one
+        int start = chunks.get(first).start;
+        int end = endOf(last, delta);
+        while (last + 1 < chunks.size() && !isSelfContained(start, end)) {
+            last++;
+            end = endOf(last, delta);
+        }
+
+        List<Chunk> changed = parseRegion(start, end, chunks.get(first).line);
+        List<Chunk> following = new ArrayList<>(chunks.subList(last + 1, chunks.size()));
+        chunks.subList(first, chunks.size()).clear();
+        chunks.addAll(changed);
+
+        if (lineDelta != 0) moved = new IdentityHashMap<>();
+        for (Chunk chunk : following) {
+            Stmt statement = chunk.statement;
+            if (statement != null && lineDelta != 0) {
+                statement = LineShifter.shift(statement, lineDelta);
+                moved.put(chunk.statement, statement);
+            }
+            chunks.add(new Chunk(chunk.start + delta, chunk.line + lineDelta, statement, chunk.hadError));
+        }
+        return statementsOf(changed);
+    }
+
+    /**
+     * The declarations the last edit moved to other lines, from each one it replaced to its shifted copy.
+     */
+    public Map<Stmt, Stmt> moved() {
+        return moved;
+    }
+
+    // Replaces the whole source, as one edit from the first character that differs to the last
+    public List<Stmt> replaceSource(String replacement) {
+        if (replacement.equals(source)) {
+            moved = Collections.emptyMap();
+            return Collections.emptyList();
+        }
+        int prefix = 0;
+        int limit = Math.min(source.length(), replacement.length());
+        while (prefix < limit && source.charAt(prefix) == replacement.charAt(prefix)) prefix++;
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && source.charAt(source.length() - 1 - suffix) == replacement.charAt(replacement.length() - 1 - suffix)) {
+            suffix++;
+        }
+        return edit(prefix, source.length() - prefix - suffix,
+                replacement.substring(prefix, replacement.length() - suffix));
+    }
+
+    private int endOf(int chunk, int delta) {
+        return chunk + 1 < chunks.size() ? chunks.get(chunk + 1).start + delta : source.length();
+    }
+
+    private List<Chunk> parseRegion(int start, int end, int line) {
+        boolean hadError = reporter.hadError;
+        List<Token> tokens = new Scanner(source, reporter, start, end, line).scanTokens();
+        Parser parser = new Parser(tokens, reporter);
+        List<Chunk> region = new ArrayList<>();
+
+        // Leading whitespace and comments belong to the first declaration so the region stays covered
+        int chunkStart = start;
+        int chunkLine = line;
+        while (parser.hasMoreTokens()) {
+            reporter.hadError = false;
+            Stmt statement = parser.parseDeclaration();
+            if (statement != null && !reporter.hadError) {
+                new Resolver(reporter).resolve(Collections.singletonList(statement));
+            }
+            region.add(new Chunk(chunkStart, chunkLine, statement, reporter.hadError));
+            hadError |= reporter.hadError;
+
+            Token next = parser.nextToken();
+            chunkStart = next.offset;
+            chunkLine = next.line;
+        }
+        if (region.isEmpty() && start < end) {
+            // Only whitespace and comments, keep them so later offsets still line up
+            region.add(new Chunk(start, line, null, reporter.hadError));
+        }
+        reporter.hadError = hadError;
+        return region;
+    }
+
+    // Balanced brackets, no open string, and ends on a token that can end a declaration
+    private boolean isSelfContained(int start, int end) {
+        int depth = 0;
+        char lastToken = ';';
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c == '/' && i + 1 < end && source.charAt(i + 1) == '/') {
+                while (i < end && source.charAt(i) != '\n') i++;
+                continue;
+            }
+            if (c == '"') {
+                i++;
+                while (i < end && source.charAt(i) != '"') i++;
+                if (i == end) return false;
+            } else if (c == '{' || c == '(' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ')' || c == ']') {
+                if (--depth < 0) return false;
+            }
+            if (!Character.isWhitespace(c)) lastToken = c;
+        }
+        return depth == 0 && (lastToken == ';' || lastToken == '}');
+    }
+
+    private static int countLines(String text, int start, int end) {
+        int lines = 0;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == '\n') lines++;
+        }
+        return lines;
+    }
+
+    private static List<Stmt> statementsOf(List<Chunk> region) {
+        List<Stmt> statements = new ArrayList<>(region.size());
+        for (Chunk chunk : region) {
+            if (chunk.statement != null) statements.add(chunk.statement);
+        }
+        return statements;
+    }
+}
@@ -1,28 +1,144 @@
 package com.danielfoord.lox;
 
 import com.danielfoord.lox.expressions.*;
+import com.danielfoord.lox.functions.CallSite;
 import com.danielfoord.lox.functions.LoxCallable;
 import com.danielfoord.lox.functions.LoxFunction;
 import com.danielfoord.lox.functions.Return;
-import com.danielfoord.lox.globals.Clock;
-import com.danielfoord.lox.globals.ReadLine;
+import com.danielfoord.lox.globals.Builtins;
+import com.danielfoord.lox.globals.Natives;
+import com.danielfoord.lox.metrics.InterpreterMetrics;
 import com.danielfoord.lox.statements.*;
 
-import java.util.ArrayList;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
 
-    public final Environment globals = new Environment();
-    private final Map<Expr, Integer> locals = new HashMap<>();
-    public Environment environment = globals;
+    public final Environment globals;
+    public Environment environment;
     private boolean hitBreak = false;
-
-    Interpreter() {
-        globals.define("clock", new Clock());
-        globals.define("readLine", new ReadLine());
+    private final InterpreterMetrics metrics = InterpreterMetrics.register();
+    public final CallStack callStack;
+    private final ErrorReporter reporter;
+    private final OutputSink out;
+    private final BufferedReader in;
+    // Set on the workers of parallel natives and spawned tasks, to the interpreter whose run they work for and whose limits they share
+    private final Interpreter parent;
+
+    // Units of work a run may do, a loop iteration or a call each cost one, and nanoseconds it may take
+    private long fuelLimit = NO_LIMIT;
+    private long timeLimit = NO_LIMIT;
+    // Fuel handed out to the running code, the limits are only checked when it runs out
+    private long fuel;
+    private long fuelReserve = NO_LIMIT;
+    private long deadline = NO_LIMIT;
+    private volatile boolean cancelled = false;
+    // Counts finished runs, a worker stops once the run it was forked in has ended, so a task nobody
+    // joined doesn't carry on into the next run
+    private volatile int runsEnded = 0;
+    // Only for workers, the count when they were forked
+    private final int forkedIn;
+    // Approximate bytes a run may hold at once. Of the limit, the root keeps what its workers haven't been
+    // granted, which they change from their own threads
+    private long memoryCap = NO_LIMIT;
+    private volatile long memoryLimit = NO_LIMIT;
+    // Approximate bytes allocated so far, and what counts against the limit: what the run held when last
+    // measured plus what it has allocated since
+    private long allocated;
+    private long held;
+    // What a worker has taken from its parent's memory limit so far
+    private long granted;
+    // Files natives opened in the current run and its tasks, closed once it ends so none are left for the next
+    private final Set<Closeable> openFiles;
+    // The environments of the blocks and calls below the running one, where measuring starts from
+    private Environment[] frames = new Environment[64];
+    private int frameCount = 0;
+    // Counted here rather than in the shared metrics, which they're added to when a run ends or a worker is absorbed
+    private long calls;
+    private long environments;
+    private long instances;
+    private long statements;
+
+    public static final long NO_LIMIT = Long.MAX_VALUE;
+    // Fuel handed out at a time, small enough that the deadline and cancellation are noticed quickly
+    private static final long FUEL_SLICE = 10_000;
+    // Memory a worker takes from its parent's limit at a time, at most, so workers can share a small limit
+    private static final long MEMORY_SLICE = 1 << 20;
+    private static final int MEMORY_SLICES_PER_LIMIT = 16;
+    // Workers buffer what they print until the parent takes it, most print little or nothing
+    private static final int WORKER_OUTPUT = 1 << 10;
+
+    // Rough heap sizes on a 64 bit JVM with compressed pointers, enough to tell a runaway script from a busy one
+    static final long ENVIRONMENT = 152;
+    static final long BINDING = 32;
+    static final long INSTANCE = 152;
+    static final long FIELD = 32;
+    static final long FUNCTION = 24;
+    static final long STRING = 40;
+
+    Interpreter(ErrorReporter reporter, OutputSink out, BufferedReader in) {
+        this(newGlobals(), reporter, out, in);
+    }
+
+    // Starts from globals that are already set up, such as ones restored from a snapshot
+    Interpreter(Environment globals, ErrorReporter reporter, OutputSink out, BufferedReader in) {
+        this.globals = globals;
+        this.environment = globals;
+        this.callStack = new CallStack();
+        this.reporter = reporter;
+        this.out = out;
+        this.in = in;
+        this.parent = null;
+        this.forkedIn = 0;
+        this.openFiles = ConcurrentHashMap.newKeySet();
+        metrics.track(callStack);
+    }
+
+    // A worker has its own environment, call stack and output, so it can run Lox code on another thread.
+    // Everything else, the globals and the values they lead to, is shared
+    private Interpreter(Interpreter caller) {
+        this.globals = caller.globals;
+        this.environment = caller.globals;
+        this.callStack = new CallStack(caller.callStack);
+        this.reporter = caller.reporter;
+        this.out = OutputSink.toMemory(WORKER_OUTPUT);
+        this.in = caller.in;
+        this.parent = caller.parent != null ? caller.parent : caller;
+        this.memoryLimit = parent.memoryCap == NO_LIMIT ? NO_LIMIT : 0;
+        this.forkedIn = parent.runsEnded;
+        this.openFiles = parent.openFiles;
+        metrics.track(callStack);
+    }
+
+    // The globals every script starts with. File natives aren't among them, the command line adds them and
+    // embedders can with LoxContext.defineNatives
+    static Environment newGlobals() {
+        Environment globals = new Environment();
+        Natives.define(globals, Builtins.class);
+        Natives.define(globals, Float64Array.class);
+        Natives.define(globals, Parallel.class);
+        Natives.define(globals, Tasks.class);
+        return globals;
+    }
+
+    // Where readLine reads from
+    public BufferedReader input() {
+        return in;
+    }
+
+    // Where print writes, natives that wait on the user flush it first
+    public OutputSink output() {
+        return out;
     }
 
     //#region Statements
@@ -35,7 +151,11 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
     @Override
     public Object visitPrintStmt(PrintStmt statement) {
         Object value = evaluate(statement.expression);
-        System.out.println(stringify(value));
+        if (value instanceof Double) {
+            out.println((double) value);
+        } else {
+            out.println(stringify(value));
+        }
         return null;
     }
 
@@ -46,12 +166,15 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
             value = evaluate(statement.initializer);
         }
 
-        environment.define(statement.name.lexeme, value);
+        // Locals go with their block or call, only globals stay for the rest of the run
+        if (environment == globals) allocate(BINDING, statement.line);
+        environment.define(statement.name, value);
         return null;
     }
 
     @Override
     public Object visitBlockStmt(BlockStmt statement) {
+        environments++;
         executeBlock(statement.statements, new Environment(this.environment));
         return null;
     }
@@ -70,6 +193,7 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
     public Object visitWhileStmt(WhileStmt statement) {
         while (!hitBreak && isTruthy(evaluate(statement.condition))) {
             execute(statement.statement);
+            if (--fuel < 0) refuel(statement.line);
         }
         hitBreak = false;
         return null;
@@ -83,8 +207,10 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
 
     @Override
     public Object visitFunctionStmt(FunctionStmt statement) {
+        // A closure keeps the environment it was declared in
+        allocate(environment == globals ? FUNCTION + BINDING : FUNCTION + BINDING + ENVIRONMENT, statement.line);
         LoxFunction function = new LoxFunction(statement, environment, false);
-        environment.define(statement.name.lexeme, function);
+        environment.define(statement.name, function);
         return null;
     }
 
@@ -101,13 +227,15 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
         if (statement.superClass != null) {
             superClass = evaluate(statement.superClass);
             if (!(superClass instanceof LoxClass)) {
-                throw new RuntimeError(statement.superClass.name, "Superclass must be a class.");
+                throw new RuntimeError(statement.superClass.line, "Superclass must be a class.");
             }
         }
 
-        environment.define(statement.name.lexeme, null);
+        allocate(FUNCTION * (statement.methods.size() + 1) + BINDING, statement.line);
+        environment.define(statement.name, null);
 
         if (superClass != null) {
+            environments++;
             environment = new Environment(environment);
             environment.define("super", superClass);
         }
@@ -115,22 +243,24 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt method : statement.methods) {
             var fnStmt = (FunctionStmt) method;
-            LoxFunction function = new LoxFunction(fnStmt, environment, fnStmt.name.lexeme.equals("init"));
-            methods.put(((FunctionStmt) method).name.lexeme, function);
+            LoxFunction function = new LoxFunction(fnStmt, environment, fnStmt.name.equals("init"));
+            methods.put(fnStmt.name, function);
         }
 
-        LoxClass klass = new LoxClass(statement.name.lexeme, (LoxClass) superClass, methods);
+        LoxClass klass = new LoxClass(statement.name, (LoxClass) superClass, methods);
 
         if (superClass != null) {
             environment = environment.enclosing;
         }
 
-        environment.assign(statement.name, klass);
+        environment.assign(statement.name, statement.line, klass);
         return null;
     }
 
     public void executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
+        if (frameCount == frames.length) frames = Arrays.copyOf(frames, frameCount * 2);
+        frames[frameCount++] = previous;
         try {
             this.environment = environment;
             for (Stmt stmt : statements) {
@@ -141,6 +271,7 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
             }
         } finally {
             this.environment = previous;
+            frames[--frameCount] = null;
         }
     }
     //#endregion
@@ -151,35 +282,37 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
         Object left = evaluate(expression.left);
         Object right = evaluate(expression.right);
 
-        switch (expression.operator.type) {
+        switch (expression.operator) {
             case MINUS:
-                assertNumberOperand(expression.operator, right);
+                assertNumberOperand(expression.line, right);
                 return (double) left - (double) right;
             case SLASH:
-                assertOperandTypes(expression.operator, left, right);
+                assertOperandTypes(expression.line, left, right);
                 return (double) left / (double) right;
             case STAR:
-                assertOperandTypes(expression.operator, left, right);
+                assertOperandTypes(expression.line, left, right);
                 return (double) left * (double) right;
             case PLUS:
-                assertOperandTypes(expression.operator, left, right);
+                assertOperandTypes(expression.line, left, right);
                 return (double) left + (double) right;
             case PLUS_PLUS:
-                return stringify(left) + stringify(right);
+                String text = stringify(left) + stringify(right);
+                allocate(STRING + text.length(), expression.line);
+                return text;
             case GREATER:
-                assertOperandTypes(expression.operator, left, right);
+                assertOperandTypes(expression.line, left, right);
                 return (double) left > (double) right;
             case GREATER_EQUAL:
-                assertOperandTypes(expression.operator, left, right);
+                assertOperandTypes(expression.line, left, right);
                 return (double) left >= (double) right;
             case LESS:
-                assertOperandTypes(expression.operator, left, right);
+                assertOperandTypes(expression.line, left, right);
                 return (double) left < (double) right;
             case LESS_EQUAL:
-                assertOperandTypes(expression.operator, left, right);
+                assertOperandTypes(expression.line, left, right);
                 return (double) left <= (double) right;
             case EQUAL_EQUAL:
-                assertOperandTypesMatch(expression.operator, left, right);
+                assertOperandTypesMatch(expression.line, left, right);
                 return isEqual(left, right);
             case BANG_EQUAL:
                 return !isEqual(left, right);
@@ -204,10 +337,10 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
     public Object visitUnaryExpr(UnaryExpr expression) {
         Object right = evaluate(expression.right);
 
-        if (expression.operator.type == TokenType.MINUS) {
-            assertNumberOperand(expression.operator, right);
+        if (expression.operator == TokenType.MINUS) {
+            assertNumberOperand(expression.line, right);
             return -(double) right;
-        } else if (expression.operator.type == TokenType.BANG) {
+        } else if (expression.operator == TokenType.BANG) {
             return !isTruthy(right);
         }
 
@@ -218,11 +351,10 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
     public Object visitAssignExpr(AssignExpr expression) {
         Object value = evaluate(expression.value);
 
-        Integer distance = locals.get(expression);
-        if (distance != null) {
-            environment.assignAt(distance, expression.name, value);
+        if (expression.depth != Expr.GLOBAL) {
+            environment.assignAt(expression.depth, expression.name, value);
         } else {
-            globals.assign(expression.name, value);
+            globals.assign(expression.name, expression.line, value);
         }
 
         return value;
@@ -232,7 +364,7 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
     public Object visitLogicExpr(LogicExpr expression) {
         Object left = evaluate(expression.left);
 
-        if (expression.operator.type == TokenType.OR) {
+        if (expression.operator == TokenType.OR) {
             if (isTruthy(left)) return left;
         } else {
             if (!isTruthy(left)) return left;
@@ -243,29 +375,72 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
 
     @Override
     public Object visitCallExpr(CallExpr expression) {
-        Object callee = evaluate(expression.callee);
-
-        List<Object> arguments = new ArrayList<>();
-        for (Expr arg : expression.arguments) {
-            arguments.add(evaluate(arg));
+        CallSite site = expression.cache;
+        LoxCallable function = null;
+        Object callee;
+        if (site != null && site.version == globals.version() && (function = site.get()) != null) {
+            // The global binding hasn't been replaced since this call site last looked it up
+            callee = function;
+        } else {
+            callee = evaluate(expression.callee);
         }
 
-        if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expression.paren, "Can only call functions and classes.");
+        List<Expr> arguments = expression.arguments;
+        int count = arguments.size();
+        Object a0 = count > 0 ? evaluate(arguments.get(0)) : null;
+        Object a1 = count > 1 ? evaluate(arguments.get(1)) : null;
+        Object a2 = count > 2 ? evaluate(arguments.get(2)) : null;
+        Object a3 = count > 3 ? evaluate(arguments.get(3)) : null;
+
+        Object[] values = null;
+        if (count > 4) {
+            values = new Object[count];
+            values[0] = a0;
+            values[1] = a1;
+            values[2] = a2;
+            values[3] = a3;
+            for (var i = 4; i < count; i++) {
+                values[i] = evaluate(arguments.get(i));
+            }
         }
 
-        LoxCallable function = (LoxCallable) callee;
-
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expression.paren, "Expected " +
-                    function.arity() + " arguments but got " +
-                    arguments.size() + ".");
+        if (function == null) {
+            function = assertCallable(expression, callee, count);
+            // Other callees, such as methods bound to a new instance on every call, rarely repeat
+            if (isGlobal(expression.callee))
+                expression.cache = new CallSite(function, globals.version());
         }
 
+        if (--fuel < 0) refuel(expression.line);
+        // A call's own environment goes once it returns, only a new instance is kept
+        if (function instanceof LoxClass) allocate(INSTANCE, expression.line);
+        countCall(function);
+        callStack.push(function, expression.line);
         try {
-            return function.call(this, arguments);
+            switch (count) {
+                case 0:
+                    return function.call0(this);
+                case 1:
+                    return function.call1(this, a0);
+                case 2:
+                    return function.call2(this, a0, a1);
+                case 3:
+                    return function.call3(this, a0, a1, a2);
+                case 4:
+                    return function.call4(this, a0, a1, a2, a3);
+                default:
+                    return function.call(this, values);
+            }
+        } catch (RuntimeError error) {
+            error.captureTrace(callStack);
+            throw error;
         } catch (Exception error) {
-            throw new RuntimeError(expression.paren, error.getMessage());
+            // Natives fail with plain Java exceptions, report them at the call
+            var runtimeError = new RuntimeError(expression.line, error.getMessage());
+            runtimeError.captureTrace(callStack);
+            throw runtimeError;
+        } finally {
+            callStack.pop();
         }
     }
 
@@ -273,66 +448,430 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
     public Object visitGetExpr(GetExpr expression) {
         Object object = evaluate(expression.object);
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expression.name);
+            var instance = (LoxInstance) object;
+            Object value = instance.get(expression.name, expression.line);
+            // A method comes back bound to the instance in an environment of its own
+            if (value instanceof LoxFunction && !instance.fields().containsKey(expression.name)) environments++;
+            return value;
+        }
+        if (object instanceof BuiltinValue) {
+            var value = (BuiltinValue) object;
+            LoxCallable method = value.method(expression.name);
+            if (method == null)
+                throw new RuntimeError(expression.line, "Undefined property '" + expression.name + "' on " + value.typeName() + ".");
+            return method;
         }
 
-        throw new RuntimeError(expression.name, "Only instances have properties.");
+        throw new RuntimeError(expression.line, "Only instances have properties.");
     }
 
     @Override
     public Object visitSetExpr(SetExpr expression) {
         Object object = evaluate(expression.object);
         if (object instanceof LoxInstance) {
-            ((LoxInstance) object).set(expression.name, evaluate(expression.value));
+            if (((LoxInstance) object).set(expression.name, evaluate(expression.value)))
+                allocate(FIELD, expression.line);
             return null;
         }
 
-        throw new RuntimeError(expression.name, "Only instances have properties.");
+        throw new RuntimeError(expression.line, "Only instances have properties.");
     }
 
     @Override
     public Object visitThisExpr(ThisExpr expression) {
-        return lookUpVariable(expression.keyword, expression);
+        return lookUpVariable("this", expression.line, expression.depth);
     }
 
     @Override
     public Object visitSuperExpr(SuperExpr expression) {
-        int distance = locals.get(expression);
+        int distance = expression.depth;
         LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
         LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
-        LoxFunction method = superclass.findMethod(expression.method.lexeme);
+        LoxFunction method = superclass.findMethod(expression.method);
         if (method == null) {
-            throw new RuntimeError(expression.method, "Undefined property '" + expression.method.lexeme + "'.");
+            throw new RuntimeError(expression.line, "Undefined property '" + expression.method + "'.");
         }
+        environments++;
         return method.bind(object);
     }
 
+    @Override
+    public Object visitListExpr(ListExpr expression) {
+        List<Expr> elements = expression.elements;
+        Object[] values = new Object[elements.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = evaluate(elements.get(i));
+        }
+        var list = new LoxList(values);
+        allocate(LoxList.LIST + values.length * (list.holdsNumbers() ? LoxList.NUMBER_SLOT : LoxList.VALUE_SLOT), expression.line);
+        return list;
+    }
+
+    @Override
+    public Object visitIndexExpr(IndexExpr expression) {
+        Object object = evaluate(expression.object);
+        Object index = evaluate(expression.index);
+        if (object instanceof LoxList) {
+            LoxList list = (LoxList) object;
+            return list.get(elementIndex(index, list.size(), "List index", expression.line));
+        }
+        if (object instanceof LoxMap)
+            return ((LoxMap) object).get(index);
+        if (object instanceof Float64Array) {
+            Float64Array array = (Float64Array) object;
+            return array.get(elementIndex(index, array.length(), "Array index", expression.line));
+        }
+
+        throw new RuntimeError(expression.line, "Only lists, maps and arrays can be indexed.");
+    }
+
+    @Override
+    public Object visitIndexSetExpr(IndexSetExpr expression) {
+        Object object = evaluate(expression.object);
+        Object index = evaluate(expression.index);
+        Object value = evaluate(expression.value);
+        if (object instanceof LoxList) {
+            LoxList list = (LoxList) object;
+            int position = elementIndex(index, list.size(), "List index", expression.line);
+            if (list.holdsNumbers() && !(value instanceof Double))
+                allocate(list.size() * (LoxList.VALUE_SLOT - LoxList.NUMBER_SLOT), expression.line);
+            list.set(position, value);
+            return value;
+        }
+        if (object instanceof LoxMap) {
+            if (((LoxMap) object).put(index, value))
+                allocate(LoxMap.ENTRY, expression.line);
+            return value;
+        }
+        if (object instanceof Float64Array) {
+            Float64Array array = (Float64Array) object;
+            int position = elementIndex(index, array.length(), "Array index", expression.line);
+            if (!(value instanceof Double))
+                throw new RuntimeError(expression.line, "Float64Array elements must be numbers.");
+            array.set(position, (double) value);
+            return value;
+        }
+
+        throw new RuntimeError(expression.line, "Only lists, maps and arrays can be indexed.");
+    }
+
+    @Override
+    public Object visitMapExpr(MapExpr expression) {
+        var map = new LoxMap();
+        for (int i = 0; i < expression.keys.size(); i++) {
+            Object key = evaluate(expression.keys.get(i));
+            map.put(key, evaluate(expression.values.get(i)));
+        }
+        allocate(LoxMap.MAP + map.size() * LoxMap.ENTRY, expression.line);
+        return map;
+    }
+
     @Override
     public Object visitVariableExpr(VariableExpr expression) {
-        return lookUpVariable(expression.name, expression);
+        return lookUpVariable(expression.name, expression.line, expression.depth);
     }
     //#endregion
 
     //#region Util
     public void interpret(List<Stmt> statements) {
+        try {
+            run(statements);
+        } catch (RuntimeError error) {
+            reporter.runtimeError(error);
+        }
+    }
+
+    // Like interpret, but leaves a runtime error to the caller
+    void run(List<Stmt> statements) {
+        long start = System.nanoTime();
+        fuel = 0;
+        fuelReserve = fuelLimit;
+        deadline = timeLimit == NO_LIMIT ? NO_LIMIT : start + timeLimit;
+        allocated = 0;
+        held = 0;
+        memoryLimit = memoryCap;
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            error.captureTrace(callStack);
+            metrics.runtimeError();
+            throw error;
+        } finally {
+            cancelled = false;
+            runsEnded++;
+            closeFiles();
+            out.flush();
+            metrics.addAllocatedBytes(allocated);
+            metrics.addExecutionTime(System.nanoTime() - start);
+            publishCounts();
+        }
+    }
+
+    // For natives that open files, which the run closes when it ends if the script hasn't
+    public void opened(Closeable file) {
+        openFiles.add(file);
+    }
+
+    public void closed(Closeable file) {
+        openFiles.remove(file);
+    }
+
+    private void closeFiles() {
+        for (Closeable file : openFiles) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+                // The run is over, there's nowhere left to report it
+            }
+        }
+        openFiles.clear();
+    }
+
+    //#region Limits
+    // Limits apply to every run that starts afterwards, NO_LIMIT turns them off
+    void limitFuel(long fuel) {
+        fuelLimit = fuel;
+    }
+
+    void limitTime(long nanoseconds) {
+        timeLimit = nanoseconds;
+    }
+
+    // The cap is on what a run holds at once. Allocations are counted as they're made, and once they pass the
+    // cap the run measures what it can still reach, so it only fails if that is over the cap
+    void limitMemory(long bytes) {
+        memoryCap = bytes;
+        memoryLimit = bytes;
+    }
+
+    // Approximate bytes allocated by the current run, or the last one once it has finished
+    long allocated() {
+        return allocated;
+    }
+
+    // Stops the current run, or the next one if none is running, at its next loop iteration or call.
+    // Safe to call from any thread
+    void cancel() {
+        cancelled = true;
+    }
+
+    // For natives, which have no line to fail at, the next allocation that has one checks the limit
+    void charge(long bytes) {
+        allocated += bytes;
+        held += bytes;
+    }
+
+    // For natives about to take a large block, fails before it's taken rather than after
+    void reserve(long bytes) {
+        allocated += bytes;
+        held += bytes;
+        if (held > memoryLimit && !moreMemory(bytes)) {
+            allocated -= bytes;
+            held -= bytes;
+            throw new IllegalStateException("Execution ran out of memory.");
+        }
+    }
+
+    private void allocate(long bytes, int line) {
+        allocated += bytes;
+        if ((held += bytes) > memoryLimit && !moreMemory(bytes))
+            throw new RuntimeError(line, "Execution ran out of memory.");
+    }
+
+    // Measures what the run still holds, then workers that need more than they've been granted ask the
+    // parent for it
+    private boolean moreMemory(long pending) {
+        if (!measure(pending))
+            return false;
+        return held <= memoryLimit || parent != null && parent.grantMemory(this);
+    }
+
+    // Workers only measure what their own frames hold, the globals are the parent's to count
+    private boolean measure(long pending) {
+        long retained = -1;
+        // Tasks can change what's being walked, which is measured again if they did
+        for (int attempt = 0; attempt < 3 && retained < 0; attempt++) {
+            try {
+                retained = Retained.measure(environment, frames, frameCount, parent != null ? globals : null);
+            } catch (ConcurrentModificationException | IndexOutOfBoundsException changed) {
+                // Try again
+            }
+        }
+        if (retained < 0)
+            return false;
+        held = retained + pending;
+        // Close to the limit, measuring again after every few allocations would leave no time for the run,
+        // so it waits for at least an eighth of the limit
+        if (held <= memoryLimit && memoryLimit - held < memoryLimit / 8)
+            held = memoryLimit - memoryLimit / 8;
+        return true;
+    }
+
+    private synchronized boolean grantMemory(Interpreter worker) {
+        // A worker that outlived its run mustn't take from the next one
+        if (worker.forkedIn != runsEnded)
+            return false;
+        long needed = worker.held - worker.memoryLimit;
+        long slice = Math.min(MEMORY_SLICE, memoryCap / MEMORY_SLICES_PER_LIMIT);
+        long grant = Math.min(needed + slice, memoryLimit - held);
+        if (grant < needed)
+            return false;
+        memoryLimit -= grant;
+        worker.granted += grant;
+        worker.memoryLimit += grant;
+        return true;
+    }
+
+    private void refuel(int line) {
+        Interpreter run = parent != null ? parent : this;
+        if (run.cancelled || outlivedRun())
+            throw new RuntimeError(line, "Execution was cancelled.");
+        if (run.deadline != NO_LIMIT && System.nanoTime() - run.deadline > 0)
+            throw new RuntimeError(line, "Execution timed out.");
+
+        long slice = run.takeFuel();
+        if (slice == 0)
+            throw new RuntimeError(line, "Execution ran out of fuel.");
+        // The unit that ran out is paid from the new slice
+        fuel = slice - 1;
+    }
+
+    // For natives that block, so a run waiting on another thread can still be cancelled or time out
+    void checkLimits() {
+        Interpreter run = parent != null ? parent : this;
+        if (run.cancelled || outlivedRun())
+            throw new IllegalStateException("Execution was cancelled.");
+        if (run.deadline != NO_LIMIT && System.nanoTime() - run.deadline > 0)
+            throw new IllegalStateException("Execution timed out.");
+    }
+
+    private boolean outlivedRun() {
+        return parent != null && parent.runsEnded != forkedIn;
+    }
+
+    // Workers refuel from the same reserve, so it's shared under a lock, which is only taken once a slice
+    private synchronized long takeFuel() {
+        long slice = Math.min(fuelReserve, FUEL_SLICE);
+        if (fuelReserve != NO_LIMIT) fuelReserve -= slice;
+        return slice;
+    }
+    //#endregion
+
+    //#region Workers
+    // A worker to run callbacks of a parallel native or a spawned task on another thread, take it back with
+    // absorb once it's done
+    Interpreter fork() {
+        return new Interpreter(this);
+    }
+
+    // Prints what the worker printed, settles the memory it allocated and returns the fuel it didn't use.
+    // Workers are absorbed in the order of the work they did, so the output reads as if it had been done in order
+    void absorb(Interpreter worker) {
+        out.append(worker.out.contents());
+        allocated += worker.allocated;
+        // What the worker made and handed back is held here now, until this interpreter next measures
+        held += worker.held;
+        Interpreter run = worker.parent;
+        synchronized (run) {
+            if (worker.granted > 0) run.memoryLimit += worker.granted;
+            if (run.fuelReserve != NO_LIMIT && worker.fuel > 0) run.fuelReserve += worker.fuel;
+        }
+        worker.publishCounts();
+    }
+
+    // Calls a Lox value for a native, costing what a call expression would and showing on the call stack
+    Object callBack(LoxCallable function) throws Exception {
+        enterCallBack(function);
+        try {
+            return function.call0(this);
+        } catch (RuntimeError error) {
+            error.captureTrace(callStack);
+            throw error;
+        } finally {
+            callStack.pop();
         }
     }
 
+    Object callBack(LoxCallable function, Object a0) throws Exception {
+        enterCallBack(function);
+        try {
+            return function.call1(this, a0);
+        } catch (RuntimeError error) {
+            error.captureTrace(callStack);
+            throw error;
+        } finally {
+            callStack.pop();
+        }
+    }
+
+    Object callBack(LoxCallable function, Object a0, Object a1) throws Exception {
+        enterCallBack(function);
+        try {
+            return function.call2(this, a0, a1);
+        } catch (RuntimeError error) {
+            error.captureTrace(callStack);
+            throw error;
+        } finally {
+            callStack.pop();
+        }
+    }
+
+    private void enterCallBack(LoxCallable function) {
+        int line = callStack.callerLine();
+        if (--fuel < 0) refuel(line);
+        countCall(function);
+        callStack.push(function, line);
+    }
+
+    // A Lox function's call runs its body in a new environment, a class's makes an instance and binds
+    // its initializer to it
+    private void countCall(LoxCallable function) {
+        calls++;
+        if (function instanceof LoxFunction) {
+            environments++;
+        } else if (function instanceof LoxClass) {
+            instances++;
+            if (((LoxClass) function).hasInitializer()) environments += 2;
+        }
+    }
+
+    private void publishCounts() {
+        metrics.addCalls(calls);
+        metrics.addEnvironments(environments);
+        metrics.addInstances(instances);
+        metrics.addStatements(statements);
+        calls = environments = instances = statements = 0;
+    }
+    //#endregion
+
     private Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
     private void execute(Stmt stmt) {
+        statements++;
         stmt.accept(this);
     }
 
-    private boolean isTruthy(Object object) {
+    private LoxCallable assertCallable(CallExpr expression, Object callee, int argumentCount) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(expression.line, "Can only call functions and classes.");
+        }
+
+        LoxCallable function = (LoxCallable) callee;
+        int arity = function.arity();
+        if (argumentCount != arity) {
+            throw new RuntimeError(expression.line, "Expected " +
+                    arity + " arguments but got " +
+                    argumentCount + ".");
+        }
+
+        return function;
+    }
+
+    boolean isTruthy(Object object) {
         if (object == null)
             return false;
         else if (object instanceof Boolean)
@@ -341,9 +880,23 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
             return (double) object > 0;
         else if (object instanceof String)
             return !object.equals("");
+        else if (object instanceof LoxList)
+            return ((LoxList) object).size() > 0;
+        else if (object instanceof LoxMap)
+            return ((LoxMap) object).size() > 0;
+        else if (object instanceof Float64Array)
+            return ((Float64Array) object).length() > 0;
         return true;
     }
 
+    private int elementIndex(Object index, int size, String what, int line) {
+        try {
+            return LoxList.index(index, size, what);
+        } catch (IllegalArgumentException error) {
+            throw new RuntimeError(line, error.getMessage());
+        }
+    }
+
     private boolean isEqual(Object a, Object b) {
         if (a == null && b == null)
             return true;
@@ -352,19 +905,19 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
         return a.equals(b);
     }
 
-    private void assertNumberOperand(Token token, Object operand) throws RuntimeError {
+    private void assertNumberOperand(int line, Object operand) throws RuntimeError {
         if (operand instanceof Double)
             return;
-        throw new RuntimeError(token, "Expected number operand");
+        throw new RuntimeError(line, "Expected number operand");
     }
 
-    private void assertOperandTypes(Token token, Object left, Object right) {
+    private void assertOperandTypes(int line, Object left, Object right) {
         if (left instanceof Double && right instanceof Double)
             return;
-        throw new RuntimeError(token, "Expected number operand");
+        throw new RuntimeError(line, "Expected number operand");
     }
 
-    private void assertOperandTypesMatch(Token token, Object a, Object b) {
+    private void assertOperandTypesMatch(int line, Object a, Object b) {
         if (a == null || b == null)
             return;
         if (a.getClass() == b.getClass())
@@ -378,7 +931,7 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
         if (a instanceof Boolean)
             expectedOperandType = "Boolean";
 
-        throw new RuntimeError(token, "Expected operand type " + expectedOperandType);
+        throw new RuntimeError(line, "Expected operand type " + expectedOperandType);
     }
 
     private String stringify(Object object) {
@@ -386,26 +939,70 @@ public class Interpreter implements ExprVisitor<Object>, StmtVisitor<Object> {
             return "nil";
 
         if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
+            return Numbers.toString((double) object);
+        }
+        if (object instanceof LoxList || object instanceof LoxMap) {
+            StringBuilder text = new StringBuilder();
+            appendValue(object, text, new IdentityHashMap<>());
+            return text.toString();
         }
         return object.toString();
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    // Lists and maps print the way they're written, and can hold themselves, those are written as [...]
+    // instead of recursing forever
+    private void appendValue(Object value, StringBuilder text, Map<Object, Boolean> open) {
+        if (value instanceof LoxList) {
+            LoxList list = (LoxList) value;
+            if (open.put(list, true) != null) {
+                text.append("[...]");
+                return;
+            }
+            text.append('[');
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) text.append(", ");
+                appendValue(list.get(i), text, open);
+            }
+            text.append(']');
+            open.remove(list);
+        } else if (value instanceof LoxMap) {
+            LoxMap map = (LoxMap) value;
+            if (open.put(map, true) != null) {
+                text.append("[...]");
+                return;
+            }
+            if (map.size() == 0) {
+                text.append("[:]");
+                open.remove(map);
+                return;
+            }
+            text.append('[');
+            boolean first = true;
+            for (int entry = 0; entry < map.entryLimit(); entry++) {
+                if (!map.isEntry(entry)) continue;
+                if (!first) text.append(", ");
+                first = false;
+                appendValue(map.keyAt(entry), text, open);
+                text.append(": ");
+                appendValue(map.valueAt(entry), text, open);
+            }
+            text.append(']');
+            open.remove(map);
+        } else {
+            text.append(stringify(value));
+        }
+    }
+
+    private Object lookUpVariable(String name, int line, int depth) {
+        if (depth != Expr.GLOBAL) {
+            return environment.getAt(depth, name);
         } else {
-            return globals.get(name);
+            return globals.get(name, line);
         }
     }
 
-    public void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    private boolean isGlobal(Expr expr) {
+        return expr instanceof VariableExpr && ((VariableExpr) expr).depth == Expr.GLOBAL;
     }
     //#endregion
 }
\ No newline at end of file
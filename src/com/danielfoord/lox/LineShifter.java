@@ -0,0 +1,207 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.expressions.*;
+import com.danielfoord.lox.statements.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies a statement with every line number moved by the same amount, for a declaration that only moved
+ * because lines were added or removed above it. Copying the tree is far cheaper than scanning, parsing and
+ * resolving it again, and what the resolver filled in is carried over. The original is left as it was,
+ * so code already running from it is unaffected. Statements with syntax errors can hold nulls, which stay
+ * null.
+ */
+final class LineShifter implements ExprVisitor<Expr>, StmtVisitor<Stmt> {
+
+    private final int delta;
+
+    private LineShifter(int delta) {
+        this.delta = delta;
+    }
+
+    static Stmt shift(Stmt statement, int delta) {
+        return delta == 0 ? statement : new LineShifter(delta).shift(statement);
+    }
+
+    //#region Statements
+    @Override
+    public Stmt visitExpressionStmt(ExpressionStmt statement) {
+        return new ExpressionStmt(shift(statement.expression));
+    }
+
+    @Override
+    public Stmt visitPrintStmt(PrintStmt statement) {
+        return new PrintStmt(shift(statement.expression));
+    }
+
+    @Override
+    public Stmt visitVarStmt(VarStmt statement) {
+        return new VarStmt(statement.name, statement.line + delta, shift(statement.initializer));
+    }
+
+    @Override
+    public Stmt visitBlockStmt(BlockStmt statement) {
+        return new BlockStmt(shiftStatements(statement.statements));
+    }
+
+    @Override
+    public Stmt visitIfStmt(IfStmt statement) {
+        return new IfStmt(shift(statement.condition), shift(statement.ifStatement), shift(statement.elseStatement));
+    }
+
+    @Override
+    public Stmt visitWhileStmt(WhileStmt statement) {
+        return new WhileStmt(shift(statement.condition), shift(statement.statement), statement.line + delta);
+    }
+
+    @Override
+    public Stmt visitBreakStmt(BreakStmt statement) {
+        return statement;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(FunctionStmt statement) {
+        var parameterLines = new int[statement.parameterLines.length];
+        for (var i = 0; i < parameterLines.length; i++) {
+            parameterLines[i] = statement.parameterLines[i] + delta;
+        }
+        var function = new FunctionStmt(statement.name, statement.line + delta, statement.parameters, parameterLines,
+                shiftStatements(statement.body));
+        function.assignsOutside = statement.assignsOutside;
+        function.calls = statement.calls;
+        return function;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(ReturnStmt statement) {
+        return new ReturnStmt(statement.line + delta, shift(statement.value));
+    }
+
+    @Override
+    public Stmt visitClassStmt(ClassStmt statement) {
+        return new ClassStmt(statement.name, statement.line + delta, (VariableExpr) shift(statement.superClass),
+                shiftStatements(statement.methods));
+    }
+    //#endregion
+
+    //#region Expressions
+    @Override
+    public Expr visitBinaryExpr(BinaryExpr expression) {
+        return new BinaryExpr(shift(expression.left), expression.operator, expression.line + delta, shift(expression.right));
+    }
+
+    @Override
+    public Expr visitLiteralExpr(LiteralExpr expression) {
+        return expression;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(GroupingExpr expression) {
+        return new GroupingExpr(shift(expression.expression));
+    }
+
+    @Override
+    public Expr visitUnaryExpr(UnaryExpr expression) {
+        return new UnaryExpr(expression.operator, expression.line + delta, shift(expression.right));
+    }
+
+    @Override
+    public Expr visitVariableExpr(VariableExpr expression) {
+        var variable = new VariableExpr(expression.name, expression.line + delta);
+        variable.depth = expression.depth;
+        return variable;
+    }
+
+    @Override
+    public Expr visitAssignExpr(AssignExpr expression) {
+        var assign = new AssignExpr(expression.name, expression.line + delta, shift(expression.value));
+        assign.depth = expression.depth;
+        return assign;
+    }
+
+    @Override
+    public Expr visitLogicExpr(LogicExpr expression) {
+        return new LogicExpr(shift(expression.left), expression.operator, shift(expression.right));
+    }
+
+    @Override
+    public Expr visitCallExpr(CallExpr expression) {
+        // The cached callee isn't copied, the new call site fills in its own
+        return new CallExpr(shift(expression.callee), expression.line + delta, shiftExpressions(expression.arguments));
+    }
+
+    @Override
+    public Expr visitGetExpr(GetExpr expression) {
+        return new GetExpr(shift(expression.object), expression.name, expression.line + delta);
+    }
+
+    @Override
+    public Expr visitSetExpr(SetExpr expression) {
+        return new SetExpr(shift(expression.object), expression.name, expression.line + delta, shift(expression.value));
+    }
+
+    @Override
+    public Expr visitThisExpr(ThisExpr expression) {
+        var self = new ThisExpr(expression.line + delta);
+        self.depth = expression.depth;
+        return self;
+    }
+
+    @Override
+    public Expr visitSuperExpr(SuperExpr expression) {
+        var method = new SuperExpr(expression.method, expression.line + delta);
+        method.depth = expression.depth;
+        return method;
+    }
+
+    @Override
+    public Expr visitListExpr(ListExpr expression) {
+        return new ListExpr(shiftExpressions(expression.elements), expression.line + delta);
+    }
+
+    @Override
+    public Expr visitIndexExpr(IndexExpr expression) {
+        return new IndexExpr(shift(expression.object), shift(expression.index), expression.line + delta);
+    }
+
+    @Override
+    public Expr visitIndexSetExpr(IndexSetExpr expression) {
+        return new IndexSetExpr(shift(expression.object), shift(expression.index), expression.line + delta,
+                shift(expression.value));
+    }
+
+    @Override
+    public Expr visitMapExpr(MapExpr expression) {
+        return new MapExpr(shiftExpressions(expression.keys), shiftExpressions(expression.values), expression.line + delta);
+    }
+    //#endregion
+
+    //#region Util
+    private Stmt shift(Stmt statement) {
+        return statement == null ? null : statement.accept(this);
+    }
+
+    private Expr shift(Expr expression) {
+        return expression == null ? null : expression.accept(this);
+    }
+
+    private List<Stmt> shiftStatements(List<Stmt> statements) {
+        if (statements == null) return null;
+        List<Stmt> shifted = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            shifted.add(shift(statement));
+        }
+        return shifted;
+    }
+
+    private List<Expr> shiftExpressions(List<Expr> expressions) {
+        List<Expr> shifted = new ArrayList<>(expressions.size());
+        for (Expr expression : expressions) {
+            shifted.add(shift(expression));
+        }
+        return shifted;
+    }
+    //#endregion
+}
@@ -1,26 +1,61 @@
 package com.danielfoord.lox;
 
+import com.danielfoord.lox.globals.FileIO;
+import com.danielfoord.lox.globals.NativeFunction;
+import com.danielfoord.lox.globals.Natives;
+import com.danielfoord.lox.metrics.InterpreterMetrics;
+import com.danielfoord.lox.metrics.SamplingProfiler;
+import com.danielfoord.lox.statements.ClassStmt;
+import com.danielfoord.lox.statements.FunctionStmt;
 import com.danielfoord.lox.statements.Stmt;
 
 import java.io.*;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 class Lox {
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
-    static Interpreter interpreter = new Interpreter();
+    private static final BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in));
+    private static ErrorReporter reporter = new ErrorReporter(System.err);
+    private static Interpreter interpreter = withFiles(new Interpreter(reporter, OutputSink.of(System.out), stdin));
+    private static boolean fusedFrontEnd = false;
+    private static long fuelLimit = Interpreter.NO_LIMIT;
+    private static long timeLimit = Interpreter.NO_LIMIT;
+    private static long memoryLimit = Interpreter.NO_LIMIT;
+    // How often watch looks for a new version of its file
+    private static final long WATCH_INTERVAL = 250;
 
     private static void showCommands() {
         System.out.println("Usage: JLox [command]\n");
         System.out.println("Commands:");
         System.out.println("repl - Runs a REPL in the terminal");
         System.out.println("run [file] - Runs a lox file");
+        System.out.println("    --profile=[output] - Samples the Lox call stack and writes folded stacks for flame graphs");
+        System.out.println("    --profile-interval=[ms] - Milliseconds between profiler samples, defaults to 1");
+        System.out.println("watch [file] - Runs a lox file, then each time it's saved runs only the declarations that changed");
         System.out.println("compile [source] [output] - Compiles a lox file to an executable");
         System.out.println("execute [executable] [output] - Executes an executable");
+        System.out.println("snapshot [prelude] [image] - Runs a prelude and saves the globals it leaves behind");
+        System.out.println("serve - Keeps a warm interpreter running scripts sent over a Unix domain socket");
+        System.out.println("    --socket=[path] - Where to listen, defaults to jlox.sock in $JLOX_CACHE");
+        System.out.println("    --workers=[count] - Scripts run at once, defaults to the number of processors");
+        System.out.println("client [file] - Runs a lox file, or - for source on standard input, on a server started with serve");
+        System.out.println("warmup [corpus] - Trains on a corpus of lox files, test/ by default, and writes a class data sharing");
+        System.out.println("    archive for faster startup to $JLOX_CACHE, ~/.jlox by default. bin/jlox uses it when present");
+        System.out.println("\nOptions:");
+        System.out.println("--fused - Resolves variables while parsing instead of in a separate pass");
+        System.out.println("--snapshot=[image] - Starts from the globals saved by the snapshot command");
+        System.out.println("--fuel=[units] - Fails a run after this many loop iterations and calls");
+        System.out.println("--timeout=[ms] - Fails a run that takes longer than this");
+        System.out.println("--memory=[MB] - Fails a run that holds more than roughly this much at once");
+        System.out.println("    The server applies its own limits to every request, a client can only lower them");
     }
 
     public static void main(String[] args) throws IOException {
@@ -29,11 +64,33 @@ class Lox {
             System.exit(64);
         }
 
+        fusedFrontEnd = flag(args, "fused");
+        String snapshot = option(args, "snapshot", null);
+        if (snapshot != null && !args[0].equals("serve")) {
+            interpreter = withFiles(new Interpreter(Snapshot.read(Paths.get(snapshot)), reporter, OutputSink.of(System.out), stdin));
+        }
+        fuelLimit = Long.parseLong(option(args, "fuel", String.valueOf(Interpreter.NO_LIMIT)));
+        timeLimit = option(args, "timeout", null) != null
+                ? TimeUnit.MILLISECONDS.toNanos(Long.parseLong(option(args, "timeout", null)))
+                : Interpreter.NO_LIMIT;
+        memoryLimit = option(args, "memory", null) != null
+                ? Long.parseLong(option(args, "memory", null)) << 20
+                : Interpreter.NO_LIMIT;
+        interpreter.limitFuel(fuelLimit);
+        interpreter.limitTime(timeLimit);
+        interpreter.limitMemory(memoryLimit);
+
         switch (args[0]) {
             case "repl" -> runPrompt();
-            case "run" -> runFile(args[1]);
-            case "compile" -> compile(args[1], args[2]);
+            case "run" -> runFile(args);
+            case "watch" -> watch(argument(args, 1));
+            case "compile" -> compile(argument(args, 1), argument(args, 2));
             case "execute" -> execute(args[1]);
+            case "snapshot" -> snapshot(argument(args, 1), argument(args, 2));
+            case "serve" -> serve(args, snapshot);
+            case "client" -> client(args);
+            case "warmup" -> warmup(args);
+            case "train" -> train(argument(args, 1));
             default -> {
                 System.err.println("Unknown command '" + args[0] + "'\n");
                 showCommands();
@@ -42,32 +99,175 @@ class Lox {
         }
     }
 
-    private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if (hadError)
+    private static void runFile(String[] args) throws IOException {
+        CharSequence source = SourceFile.read(Paths.get(argument(args, 1)));
+
+        String profile = option(args, "profile", null);
+        SamplingProfiler profiler = null;
+        if (profile != null) {
+            profiler = new SamplingProfiler(interpreter.callStack, Long.parseLong(option(args, "profile-interval", "1")));
+            profiler.start();
+        }
+
+        run(source);
+
+        if (profiler != null) {
+            profiler.stop();
+            profiler.write(Paths.get(profile));
+        }
+
+        if (reporter.hadError)
             System.exit(65);
-        if (hadRuntimeError)
+        if (reporter.hadRuntimeError)
             System.exit(70);
     }
 
-    private static void runPrompt() throws IOException {
-        InputStreamReader input = new InputStreamReader(System.in);
-        BufferedReader reader = new BufferedReader(input);
+    // Functions and classes that change are redefined and changed top level statements run again, while the
+    // globals the script has built up so far are kept. Nothing runs while the file has errors, what changed
+    // in the meantime runs once they're fixed
+    private static void watch(String path) throws IOException {
+        Path file = Paths.get(path);
+        FileTime modified = Files.getLastModifiedTime(file);
+        IncrementalParser program = new IncrementalParser(Files.readString(file), reporter);
+        List<Stmt> pending = new ArrayList<>(program.statements());
+
+        for (; ; ) {
+            if (!program.hadError() && !pending.isEmpty()) {
+                // A declaration edited again while there were errors only runs in its latest form
+                pending.retainAll(program.statements());
+                interpreter.interpret(pending);
+                pending.clear();
+            }
+
+            try {
+                Thread.sleep(WATCH_INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+            FileTime lastModified;
+            try {
+                lastModified = Files.getLastModifiedTime(file);
+            } catch (NoSuchFileException e) {
+                // Some editors save by replacing the file, it's back on the next look
+                continue;
+            }
+            if (lastModified.equals(modified))
+                continue;
+            modified = lastModified;
+            reporter.hadError = false;
+            pending.addAll(program.replaceSource(Files.readString(file)));
+            // Moved functions and classes are declared again so errors in them report their new lines,
+            // other moved statements would repeat what they did
+            Map<Stmt, Stmt> moved = program.moved();
+            pending.replaceAll(statement -> moved.getOrDefault(statement, statement));
+            for (Stmt statement : moved.values()) {
+                if ((statement instanceof FunctionStmt || statement instanceof ClassStmt) && !pending.contains(statement))
+                    pending.add(statement);
+            }
+        }
+    }
+
+    private static void snapshot(String preludePath, String imagePath) throws IOException {
+        run(SourceFile.read(Paths.get(preludePath)));
+
+        if (reporter.hadError)
+            System.exit(65);
+        if (reporter.hadRuntimeError)
+            System.exit(70);
+
+        // The file natives are the command line's, whoever loads the image decides whether to add them
+        for (NativeFunction function : Natives.of(FileIO.class).values()) {
+            interpreter.globals.values().remove(function.getName(), function);
+        }
+        Snapshot.write(interpreter.globals, Paths.get(imagePath));
+    }
+
+    // Scripts run from the command line may use the files of the machine they run on
+    private static Interpreter withFiles(Interpreter interpreter) {
+        Natives.define(interpreter.globals, FileIO.class);
+        return interpreter;
+    }
+
+    private static void serve(String[] args, String snapshot) throws IOException {
+        byte[] image = snapshot != null ? Files.readAllBytes(Paths.get(snapshot)) : null;
+        int workers = Integer.parseInt(option(args, "workers", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        new Server(socket(args), image, workers, fuelLimit, timeLimit, memoryLimit).serve();
+    }
+
+    private static void client(String[] args) throws IOException {
+        String file = argument(args, 1);
+        List<String> options = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--fused") || arg.startsWith("--fuel=") || arg.startsWith("--timeout=") || arg.startsWith("--memory="))
+                options.add(arg);
+        }
+        int exitCode = file.equals("-")
+                ? Server.send(socket(args), "eval", new String(System.in.readAllBytes(), StandardCharsets.UTF_8), options)
+                : Server.send(socket(args), "run", Paths.get(file).toAbsolutePath().toString(), options);
+        System.exit(exitCode);
+    }
+
+    private static Path socket(String[] args) {
+        String socket = option(args, "socket", null);
+        return socket != null ? Paths.get(socket) : Warmup.defaultCache().resolve(Server.SOCKET);
+    }
+
+    private static void warmup(String[] args) throws IOException {
+        Path cache = Warmup.defaultCache();
+        String corpus = argument(args, 1);
+        try {
+            Warmup.createArchive(cache, Paths.get(corpus != null ? corpus : "test"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.exit(70);
+        }
+        System.out.println("Wrote " + cache.resolve(Warmup.ARCHIVE));
+    }
+
+    // Runs every training script in this process, with a compile and execute round trip, so their classes get archived
+    private static void train(String corpus) throws IOException {
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        System.setOut(discard);
+        System.setErr(discard);
+
+        for (Path script : Warmup.trainingScripts(Paths.get(corpus))) {
+            reporter = new ErrorReporter(discard);
+            interpreter = withFiles(new Interpreter(reporter, OutputSink.of(discard), new BufferedReader(Reader.nullReader())));
+            try {
+                List<Stmt> statements = FrontEnd.parse(SourceFile.read(script), reporter, fusedFrontEnd);
+                if (statements == null)
+                    continue;
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+                    output.writeObject(statements);
+                }
+                try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                    input.readObject();
+                }
+                interpreter.interpret(statements);
+            } catch (RuntimeException | StackOverflowError | ClassNotFoundException e) {
+                // Scripts that fail still loaded the classes they needed
+            }
+        }
+    }
 
+    private static void runPrompt() throws IOException {
+        ReplSession session = new ReplSession(reporter, interpreter);
         for (; ; ) {
-            System.out.print(">> ");
-            run(reader.readLine());
-            hadError = false;
+            System.out.print(session.isContinuing() ? ".. " : ">> ");
+            String line = stdin.readLine();
+            if (line == null)
+                return;
+            session.feed(line);
         }
     }
 
     private static void compile(String sourcePath, String outPath) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(sourcePath));
-        String source = new String(bytes, Charset.defaultCharset());
-        List<Stmt> statements = parse(source);
+        CharSequence source = SourceFile.read(Paths.get(sourcePath));
+        List<Stmt> statements = FrontEnd.parse(source, reporter, fusedFrontEnd);
 
-        if (hadError)
+        if (reporter.hadError)
             System.exit(65);
 
         FileOutputStream fileStream = new FileOutputStream(outPath);
@@ -92,8 +292,10 @@ class Lox {
 
             List<Stmt> statements = (ArrayList<Stmt>)object;
 
-            Resolver resolver = new Resolver(interpreter);
+            long start = System.nanoTime();
+            Resolver resolver = new Resolver(reporter);
             resolver.resolve(statements);
+            InterpreterMetrics.get().addResolveTime(System.nanoTime() - start);
 
             interpreter.interpret(statements);
         } catch (IOException | ClassNotFoundException e) {
@@ -101,27 +303,9 @@ class Lox {
         }
     }
 
-    private static List<Stmt> parse(String source)
-    {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-
-        // Stop if there was a syntax error.
-        if (hadError)
-            return null;
-
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-
-        return statements;
-    }
-
-    private static void run(String source) {
+    private static void run(CharSequence source) {
 
-        var statements = parse(source);
+        var statements = FrontEnd.parse(source, reporter, fusedFrontEnd);
 
         if (statements == null)
             return;
@@ -129,25 +313,28 @@ class Lox {
         interpreter.interpret(statements);
     }
 
-    static void error(int line, String message) {
-        report(line, "", message);
-    }
-
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
+    // Positional arguments, skipping any --name=value options
+    private static String argument(String[] args, int position) {
+        var seen = 0;
+        for (String arg : args) {
+            if (arg.startsWith("--")) continue;
+            if (seen++ == position) return arg;
+        }
+        return null;
     }
 
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+    private static boolean flag(String[] args, String name) {
+        for (String arg : args) {
+            if (arg.equals("--" + name)) return true;
         }
+        return false;
     }
 
-    static void runtimeError(RuntimeError error) {
-        System.err.println("Runtime Error: " + error.getMessage() + "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
+    private static String option(String[] args, String name, String fallback) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) return arg.substring(prefix.length());
+        }
+        return fallback;
     }
-}
\ No newline at end of file
+}
@@ -3,7 +3,6 @@ package com.danielfoord.lox;
 import com.danielfoord.lox.functions.LoxCallable;
 import com.danielfoord.lox.functions.LoxFunction;
 
-import java.util.List;
 import java.util.Map;
 
 public class LoxClass implements LoxCallable {
@@ -11,30 +10,81 @@ public class LoxClass implements LoxCallable {
     public final String name;
     public final LoxClass superClass;
     public final Map<String, LoxFunction> methods;
+    private final LoxFunction initializer;
+    private final int arity;
 
     public LoxClass(String name, LoxClass superClass, Map<String, LoxFunction> methods) {
         this.name = name;
         this.superClass = superClass;
         this.methods = methods;
+        // Methods can't change once the class is declared, so look the initializer up once
+        this.initializer = findMethod("init");
+        this.arity = initializer == null ? 0 : initializer.arity();
     }
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
-        if (initializer == null) return 0;
-        return initializer.arity();
+        return arity;
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
         var instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
             initializer.bind(instance).call(interpreter, arguments);
         }
         return instance;
     }
 
+    @Override
+    public Object call0(Interpreter interpreter) {
+        var instance = new LoxInstance(this);
+        if (initializer != null) {
+            initializer.bind(instance).call0(interpreter);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a0) {
+        var instance = new LoxInstance(this);
+        if (initializer != null) {
+            initializer.bind(instance).call1(interpreter, a0);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a0, Object a1) {
+        var instance = new LoxInstance(this);
+        if (initializer != null) {
+            initializer.bind(instance).call2(interpreter, a0, a1);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) {
+        var instance = new LoxInstance(this);
+        if (initializer != null) {
+            initializer.bind(instance).call3(interpreter, a0, a1, a2);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a0, Object a1, Object a2, Object a3) {
+        var instance = new LoxInstance(this);
+        if (initializer != null) {
+            initializer.bind(instance).call4(interpreter, a0, a1, a2, a3);
+        }
+        return instance;
+    }
+
+    boolean hasInitializer() {
+        return initializer != null;
+    }
+
     public LoxFunction findMethod(String name) {
         if (methods.containsKey(name)) {
             return methods.get(name);
@@ -0,0 +1,71 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.globals.Natives;
+
+import java.io.BufferedReader;
+import java.time.Duration;
+
+/**
+ * The state of one execution: its own globals, environment and call stack.
+ * A context is cheap to make and must only be used by one thread at a time; run programs in parallel
+ * by giving each execution its own context. Programs run one after another in the same context share
+ * its globals, so a prelude can be run once before the program that uses it.
+ */
+public final class LoxContext {
+
+    private final Interpreter interpreter;
+
+    LoxContext(Environment globals, OutputSink out, BufferedReader in) {
+        // Runtime errors are thrown to the caller, so nothing is ever reported through this
+        this.interpreter = new Interpreter(globals, new ErrorReporter(System.err), out, in);
+    }
+
+    // Throws RuntimeError when the program fails, the context can still be used afterwards
+    public void run(Program program) {
+        interpreter.run(program.statements);
+    }
+
+    // Numbers are Doubles, nil is null, and classes, functions and instances are their runtime objects.
+    // Throws RuntimeError when the name is not defined
+    public Object get(String name) {
+        return interpreter.globals.get(name, 0);
+    }
+
+    public void define(String name, Object value) {
+        interpreter.globals.define(name, value);
+    }
+
+    // How many loop iterations and calls together each run may make before it fails, Long.MAX_VALUE for no limit
+    public void setFuel(long fuel) {
+        if (fuel < 0) throw new IllegalArgumentException("Fuel can't be negative");
+        interpreter.limitFuel(fuel);
+    }
+
+    // How long each run may take before it fails, null for no limit
+    public void setTimeout(Duration timeout) {
+        interpreter.limitTime(timeout == null ? Interpreter.NO_LIMIT : timeout.toNanos());
+    }
+
+    // Roughly how many bytes each run may hold at once before it fails, Long.MAX_VALUE for no limit.
+    // Instances, fields, globals, closures, collections and concatenated strings the run can still reach are counted
+    public void setMemoryLimit(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("Memory limit can't be negative");
+        interpreter.limitMemory(bytes);
+    }
+
+    // Approximate bytes allocated by the last run, including one that failed
+    public long allocatedBytes() {
+        return interpreter.allocated();
+    }
+
+    // Makes the current run fail with a runtime error at its next loop iteration or call, or the next run
+    // if none is in progress. Unlike everything else on a context, this may be called from another thread
+    public void cancel() {
+        interpreter.cancel();
+    }
+
+    // Defines the methods of the class marked with @LoxNative, throws IllegalArgumentException when one can't be bound
+    public void defineNatives(Class<?> holder) {
+        Natives.define(interpreter.globals, holder);
+    }
+}
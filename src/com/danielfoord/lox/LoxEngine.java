@@ -0,0 +1,69 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.statements.Stmt;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Entry point for embedding jlox. Compile a script once into a Program, then run it in as many
+ * LoxContexts as needed, from any threads. The engine holds no state that changes, so one can be shared.
+ */
+public final class LoxEngine {
+
+    // Globals of every new context are restored from this when set
+    private final byte[] snapshot;
+
+    public LoxEngine() {
+        this.snapshot = null;
+    }
+
+    private LoxEngine(byte[] snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    // Contexts start from the globals saved by `jlox snapshot`
+    public static LoxEngine fromSnapshot(Path image) throws IOException {
+        byte[] snapshot = Files.readAllBytes(image);
+        Snapshot.read(snapshot);
+        return new LoxEngine(snapshot);
+    }
+
+    public Program compile(CharSequence source) {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        ErrorReporter reporter = new ErrorReporter(new PrintStream(errors, true, StandardCharsets.UTF_8));
+        List<Stmt> statements = FrontEnd.parse(source, reporter, false);
+        if (statements == null || reporter.hadError)
+            throw new CompileError(errors.toString(StandardCharsets.UTF_8).trim());
+        return new Program(statements);
+    }
+
+    public LoxContext newContext(PrintStream out) {
+        return newContext(OutputSink.of(out));
+    }
+
+    public LoxContext newContext(PrintStream out, BufferedReader in) {
+        return newContext(OutputSink.of(out), in);
+    }
+
+    // Print goes to the sink, which is flushed after every run
+    public LoxContext newContext(OutputSink out) {
+        return newContext(out, new BufferedReader(Reader.nullReader()));
+    }
+
+    public LoxContext newContext(OutputSink out, BufferedReader in) {
+        try {
+            return new LoxContext(snapshot == null ? Interpreter.newGlobals() : Snapshot.read(snapshot), out, in);
+        } catch (IOException e) {
+            // The image was read when the engine was made, so this can't happen
+            throw new IllegalStateException(e);
+        }
+    }
+}
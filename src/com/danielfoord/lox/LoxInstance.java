@@ -14,19 +14,30 @@ public class LoxInstance {
         this.klass = klass;
     }
 
-    public void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+    LoxClass klass() {
+        return klass;
     }
 
-    public Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+    Map<String, Object> fields() {
+        return fields;
+    }
+
+    // True when the instance didn't have the field yet
+    public boolean set(String name, Object value) {
+        int count = fields.size();
+        fields.put(name, value);
+        return fields.size() > count;
+    }
+
+    public Object get(String name, int line) {
+        if (fields.containsKey(name)) {
+            return fields.get(name);
         }
 
-        LoxFunction method = klass.findMethod(name.lexeme);
+        LoxFunction method = klass.findMethod(name);
         if (method != null) return method.bind(this);
 
-        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "' on " + this.toString() + ".");
+        throw new RuntimeError(line, "Undefined property '" + name + "' on " + this.toString() + ".");
     }
 
     @Override
@@ -0,0 +1,184 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.functions.LoxCallable;
+
+import java.util.Arrays;
+
+/**
+ * The built in list. While a list only holds numbers they're kept unboxed in a double[], which takes a
+ * third of the memory of boxed Doubles behind references. The first value that isn't a number moves the
+ * list over to an Object[] for good.
+ */
+public final class LoxList implements BuiltinValue {
+
+    private static final double[] NO_NUMBERS = new double[0];
+
+    // Rough heap sizes for memory accounting, a number slot is one double, any other value a reference and a box
+    static final long LIST = 40;
+    static final long NUMBER_SLOT = 8;
+    static final long VALUE_SLOT = 24;
+
+    // Exactly one of these is in use, numbers until something else is stored
+    private double[] numbers;
+    private Object[] values;
+    private int size;
+
+    public LoxList() {
+        this.numbers = NO_NUMBERS;
+    }
+
+    LoxList(Object[] elements) {
+        for (Object element : elements) {
+            if (!(element instanceof Double)) {
+                this.values = elements;
+                this.size = elements.length;
+                return;
+            }
+        }
+        this.numbers = new double[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            numbers[i] = (double) elements[i];
+        }
+        this.size = elements.length;
+    }
+
+    private LoxList(double[] numbers, Object[] values, int size) {
+        this.numbers = numbers;
+        this.values = values;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    boolean holdsNumbers() {
+        return numbers != null;
+    }
+
+    public Object get(int index) {
+        return numbers != null ? (Object) numbers[index] : values[index];
+    }
+
+    public void set(int index, Object value) {
+        if (numbers != null) {
+            if (value instanceof Double) {
+                numbers[index] = (double) value;
+                return;
+            }
+            box();
+        }
+        values[index] = value;
+    }
+
+    public void add(Object value) {
+        if (numbers != null) {
+            if (value instanceof Double) {
+                if (size == numbers.length) numbers = Arrays.copyOf(numbers, grow(size));
+                numbers[size++] = (double) value;
+                return;
+            }
+            box();
+        }
+        if (size == values.length) values = Arrays.copyOf(values, grow(size));
+        values[size++] = value;
+    }
+
+    // Removes and returns the last element, the list must not be empty
+    Object removeLast() {
+        size--;
+        if (numbers != null) return numbers[size];
+        Object value = values[size];
+        values[size] = null;
+        return value;
+    }
+
+    LoxList slice(int start, int end) {
+        if (numbers != null) return new LoxList(Arrays.copyOfRange(numbers, start, end), null, end - start);
+        return new LoxList(null, Arrays.copyOfRange(values, start, end), end - start);
+    }
+
+    @Override
+    public String typeName() {
+        return "list";
+    }
+
+    @Override
+    public LoxCallable method(String name) {
+        switch (name) {
+            case "push":
+                return new Method(this, name, 1);
+            case "pop":
+            case "length":
+                return new Method(this, name, 0);
+            case "slice":
+                return new Method(this, name, 2);
+            default:
+                return null;
+        }
+    }
+
+    // A whole number from 0 up to but not including the limit as an index
+    static int index(Object index, int limit, String what) {
+        if (!(index instanceof Double))
+            throw new IllegalArgumentException(what + " must be a number.");
+        double value = (double) index;
+        if (value != Math.rint(value))
+            throw new IllegalArgumentException(what + " must be a whole number.");
+        if (value < 0 || value >= limit)
+            throw new IllegalArgumentException(what + " out of range.");
+        return (int) value;
+    }
+
+    private void box() {
+        values = new Object[Math.max(numbers.length, 1)];
+        for (int i = 0; i < size; i++) {
+            values[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    private static int grow(int size) {
+        return Math.max(8, size + (size >> 1));
+    }
+
+    @Override
+    public String toString() {
+        return "list(" + size + ")";
+    }
+
+    private static final class Method extends BuiltinMethod {
+        private final LoxList list;
+
+        Method(LoxList list, String name, int arity) {
+            super("list", name, arity);
+            this.list = list;
+        }
+
+        @Override
+        public Object call0(Interpreter interpreter) {
+            if (name.equals("length"))
+                return (double) list.size;
+            if (list.size == 0)
+                throw new IllegalArgumentException("Can't pop from an empty list.");
+            return list.removeLast();
+        }
+
+        @Override
+        public Object call1(Interpreter interpreter, Object value) {
+            interpreter.charge(list.holdsNumbers() && value instanceof Double ? NUMBER_SLOT : VALUE_SLOT);
+            list.add(value);
+            return null;
+        }
+
+        @Override
+        public Object call2(Interpreter interpreter, Object start, Object end) {
+            int from = index(start, list.size + 1, "Slice start");
+            int to = index(end, list.size + 1, "Slice end");
+            if (from > to)
+                throw new IllegalArgumentException("Slice start is after its end.");
+            interpreter.charge(LIST + (long) (to - from) * (list.holdsNumbers() ? NUMBER_SLOT : VALUE_SLOT));
+            return list.slice(from, to);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.functions.LoxCallable;
+
+/**
+ * The built in map, keyed by any Lox value. Numbers, strings, booleans and nil are equal when their values
+ * are, everything else only to itself, the same as ==.
+ *
+ * Entries live in parallel arrays in insertion order, with each key's hash kept beside it, so there's no node
+ * object per entry and probing compares hashes before it calls equals. An open addressing table of entry
+ * numbers, at most half full and probed linearly, finds them. Removed entries stay behind as gaps until the
+ * arrays next grow, which keeps iteration in insertion order.
+ */
+public final class LoxMap implements BuiltinValue {
+
+    // Rough heap sizes for memory accounting, an entry is a hash, a key, a value and two table slots
+    static final long MAP = 64;
+    static final long ENTRY = 20;
+
+    private static final Object REMOVED = new Object();
+    private static final int GOLDEN = 0x9E3779B9;
+    private static final int MIN_CAPACITY = 8;
+
+    // Entry number plus one for each slot, 0 when the slot is empty
+    private int[] table;
+    private int shift;
+    private int[] hashes;
+    private Object[] keys;
+    private Object[] values;
+    // Entries used, counting removed ones, and live entries
+    private int used;
+    private int size;
+    // Bumped when keys are added or removed, so iteration can tell the map changed under it
+    private int changes;
+
+    public LoxMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // nil when the key isn't there
+    public Object get(Object key) {
+        int entry = find(key, hash(key));
+        return entry < 0 ? null : values[entry];
+    }
+
+    public boolean containsKey(Object key) {
+        return find(key, hash(key)) >= 0;
+    }
+
+    // True when the key is new
+    public boolean put(Object key, Object value) {
+        int hash = hash(key);
+        int entry = find(key, hash);
+        if (entry >= 0) {
+            values[entry] = value;
+            return false;
+        }
+
+        if (used == keys.length) resize();
+        entry = used++;
+        hashes[entry] = hash;
+        keys[entry] = key;
+        values[entry] = value;
+        insert(hash, entry);
+        size++;
+        changes++;
+        return true;
+    }
+
+    // The removed value, or nil when the key wasn't there
+    public Object remove(Object key) {
+        int entry = find(key, hash(key));
+        if (entry < 0) return null;
+
+        Object value = values[entry];
+        // The slot still points at the entry, so probes for keys placed after it carry on past
+        keys[entry] = REMOVED;
+        values[entry] = null;
+        size--;
+        changes++;
+        return value;
+    }
+
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+        used = 0;
+        changes++;
+    }
+
+    //#region Iteration
+    // Entries are numbered 0 until entryLimit, skipping removed ones
+    int entryLimit() {
+        return used;
+    }
+
+    boolean isEntry(int entry) {
+        return keys[entry] != REMOVED;
+    }
+
+    Object keyAt(int entry) {
+        return keys[entry];
+    }
+
+    Object valueAt(int entry) {
+        return values[entry];
+    }
+
+    LoxList keys() {
+        Object[] result = new Object[size];
+        for (int entry = 0, i = 0; entry < used; entry++) {
+            if (keys[entry] != REMOVED) result[i++] = keys[entry];
+        }
+        return new LoxList(result);
+    }
+
+    LoxList values() {
+        Object[] result = new Object[size];
+        for (int entry = 0, i = 0; entry < used; entry++) {
+            if (keys[entry] != REMOVED) result[i++] = values[entry];
+        }
+        return new LoxList(result);
+    }
+    //#endregion
+
+    private int find(Object key, int hash) {
+        int mask = table.length - 1;
+        for (int slot = (hash * GOLDEN) >>> shift; ; slot = (slot + 1) & mask) {
+            int entry = table[slot] - 1;
+            if (entry < 0)
+                return -1;
+            if (hashes[entry] == hash) {
+                Object candidate = keys[entry];
+                if (candidate == key || (candidate != REMOVED && key != null && key.equals(candidate)))
+                    return entry;
+            }
+        }
+    }
+
+    private void insert(int hash, int entry) {
+        int mask = table.length - 1;
+        int slot = (hash * GOLDEN) >>> shift;
+        while (table[slot] != 0) slot = (slot + 1) & mask;
+        table[slot] = entry + 1;
+    }
+
+    // Drops the gaps left by removed entries, and grows when the map is more than half full of live ones
+    private void resize() {
+        int[] oldHashes = hashes;
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        int oldUsed = used;
+
+        allocate(size * 2 >= keys.length ? keys.length * 2 : keys.length);
+        used = 0;
+        for (int entry = 0; entry < oldUsed; entry++) {
+            if (oldKeys[entry] == REMOVED) continue;
+            hashes[used] = oldHashes[entry];
+            keys[used] = oldKeys[entry];
+            values[used] = oldValues[entry];
+            insert(hashes[used], used);
+            used++;
+        }
+    }
+
+    private void allocate(int capacity) {
+        // Two slots per entry keeps the table at most half full
+        int slots = capacity * 2;
+        table = new int[slots];
+        shift = Integer.numberOfLeadingZeros(slots - 1);
+        hashes = new int[capacity];
+        keys = new Object[capacity];
+        values = new Object[capacity];
+    }
+
+    // Strings cache their own hash, so this is a field read for the common case
+    private static int hash(Object key) {
+        return key == null ? 0 : key.hashCode();
+    }
+
+    @Override
+    public String typeName() {
+        return "map";
+    }
+
+    @Override
+    public LoxCallable method(String name) {
+        switch (name) {
+            case "length":
+            case "keys":
+            case "values":
+            case "clear":
+                return new Method(this, name, 0);
+            case "has":
+            case "remove":
+            case "forEach":
+                return new Method(this, name, 1);
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "map(" + size + ")";
+    }
+
+    private static final class Method extends BuiltinMethod {
+        private final LoxMap map;
+
+        Method(LoxMap map, String name, int arity) {
+            super("map", name, arity);
+            this.map = map;
+        }
+
+        @Override
+        public Object call0(Interpreter interpreter) {
+            switch (name) {
+                case "length":
+                    return (double) map.size;
+                case "keys":
+                    interpreter.charge(LoxList.LIST + map.size * LoxList.VALUE_SLOT);
+                    return map.keys();
+                case "values":
+                    interpreter.charge(LoxList.LIST + map.size * LoxList.VALUE_SLOT);
+                    return map.values();
+                default:
+                    map.clear();
+                    return null;
+            }
+        }
+
+        @Override
+        public Object call1(Interpreter interpreter, Object argument) throws Exception {
+            switch (name) {
+                case "has":
+                    return map.containsKey(argument);
+                case "remove":
+                    return map.remove(argument);
+                default:
+                    forEach(interpreter, argument);
+                    return null;
+            }
+        }
+
+        // Calls the function with each key and value in insertion order
+        private void forEach(Interpreter interpreter, Object argument) throws Exception {
+            if (!(argument instanceof LoxCallable) || ((LoxCallable) argument).arity() != 2)
+                throw new IllegalArgumentException("forEach expects a function of a key and a value.");
+            LoxCallable function = (LoxCallable) argument;
+
+            int changes = map.changes;
+            for (int entry = 0; entry < map.used; entry++) {
+                if (map.keys[entry] == REMOVED) continue;
+                interpreter.callBack(function, map.keys[entry], map.values[entry]);
+                if (map.changes != changes)
+                    throw new IllegalArgumentException("Map keys were added or removed during forEach.");
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.functions.LoxCallable;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A function running on its own thread, made by spawn. It runs on a worker interpreter, so it has its own
+ * environment and call stack over the shared globals. What it prints is held until it's joined, then
+ * printed where the join is, so the output of tasks never interleaves.
+ */
+public final class LoxTask implements BuiltinValue {
+
+    private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final Interpreter worker;
+    private final LoxCallable function;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    // Written by the task before it counts down, read after the latch opens
+    private Object result;
+    private Throwable error;
+    private boolean absorbed = false;
+
+    LoxTask(Interpreter worker, LoxCallable function) {
+        this.worker = worker;
+        this.function = function;
+    }
+
+    void run() {
+        try {
+            result = worker.callBack(function);
+        } catch (StackOverflowError overflow) {
+            // Unwound by now, so there's room to report it like any other runtime error
+            var error = new RuntimeError(worker.callStack.callerLine(), "Stack overflow.");
+            error.captureTrace(worker.callStack);
+            this.error = error;
+        } catch (Exception | Error error) {
+            // Anything else is thrown again where the task is joined
+            this.error = error;
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    // Waits for the task and returns what the function returned, or fails the way it failed
+    Object join(Interpreter interpreter) throws Exception {
+        while (!finished.await(WAIT_NANOS, TimeUnit.NANOSECONDS)) {
+            interpreter.checkLimits();
+        }
+        synchronized (this) {
+            // Only the first join prints the output and settles the limits
+            if (!absorbed) {
+                absorbed = true;
+                interpreter.absorb(worker);
+            }
+        }
+        if (error instanceof Error)
+            throw (Error) error;
+        if (error != null)
+            throw (Exception) error;
+        return result;
+    }
+
+    boolean isDone() {
+        return finished.getCount() == 0;
+    }
+
+    @Override
+    public String typeName() {
+        return "task";
+    }
+
+    @Override
+    public LoxCallable method(String name) {
+        switch (name) {
+            case "join":
+            case "done":
+                return new Method(this, name);
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<task " + CallStack.describe(function) + ">";
+    }
+
+    private static final class Method extends BuiltinMethod {
+        private final LoxTask task;
+
+        Method(LoxTask task, String name) {
+            super("task", name, 0);
+            this.task = task;
+        }
+
+        @Override
+        public Object call0(Interpreter interpreter) throws Exception {
+            if (name.equals("done"))
+                return task.isDone();
+            return task.join(interpreter);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.danielfoord.lox;
+
+/**
+ * Formats numbers the way Lox prints them, the shortest decimal that reads back as the same double,
+ * without the ".0" Double.toString leaves on whole numbers. Numbers from a thousandth up to ten million
+ * are written straight into a char array; anything that needs scientific notation or more than 15 or so
+ * significant digits goes through Double.toString.
+ */
+final class Numbers {
+
+    // Enough for a sign, 16 digits and a decimal point
+    static final int MAX_LENGTH = 24;
+
+    private static final double PLAIN_MIN = 1e-3;
+    private static final double PLAIN_MAX = 1e7;
+    // Doubles hold every integer up to here exactly
+    private static final long EXACT_MAX = 1L << 53;
+    private static final double[] POWERS = new double[18];
+    private static final long[] LONG_POWERS = new long[18];
+
+    static {
+        double power = 1;
+        long longPower = 1;
+        for (int i = 0; i < POWERS.length; i++) {
+            POWERS[i] = power;
+            LONG_POWERS[i] = longPower;
+            power *= 10;
+            longPower *= 10;
+        }
+    }
+
+    private Numbers() {
+    }
+
+    static String toString(double value) {
+        char[] digits = new char[MAX_LENGTH];
+        int length = format(value, digits, 0);
+        return length >= 0 ? new String(digits, 0, length) : slowToString(value);
+    }
+
+    // Writes the number at the position and returns where it ends, or -1 without writing anything when
+    // the number needs slowToString. There must be MAX_LENGTH chars of room
+    static int format(double value, char[] into, int at) {
+        double magnitude = Math.abs(value);
+        if (value == 0) {
+            if (1 / value < 0) into[at++] = '-';
+            into[at++] = '0';
+            return at;
+        }
+        if (!(magnitude >= PLAIN_MIN && magnitude < PLAIN_MAX))
+            return -1;
+
+        if (value < 0) into[at++] = '-';
+        if (magnitude == Math.rint(magnitude))
+            return writeDigits((long) magnitude, into, at);
+
+        // The fewest decimals that read back as the same double, a decimal and a power of ten that are
+        // both exact divide to the nearest double, which is what parsing the decimal gives too
+        for (int decimals = 1; decimals < POWERS.length; decimals++) {
+            double scaled = Math.rint(magnitude * POWERS[decimals]);
+            if (scaled > EXACT_MAX)
+                break;
+            if (scaled / POWERS[decimals] == magnitude) {
+                long unscaled = (long) scaled;
+                at = writeDigits(unscaled / LONG_POWERS[decimals], into, at);
+                into[at++] = '.';
+                long fraction = unscaled % LONG_POWERS[decimals];
+                for (int i = decimals - 1; i >= 0; i--) {
+                    into[at + i] = (char) ('0' + fraction % 10);
+                    fraction /= 10;
+                }
+                return at + decimals;
+            }
+        }
+
+        // A sign written above lies past the length the caller keeps, so it's as if nothing was written
+        return -1;
+    }
+
+    static String slowToString(double value) {
+        String text = Double.toString(value);
+        if (text.endsWith(".0")) {
+            text = text.substring(0, text.length() - 2);
+        }
+        return text;
+    }
+
+    private static int writeDigits(long value, char[] into, int at) {
+        int length = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) length++;
+        for (int i = at + length - 1; i >= at; i--) {
+            into[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return at + length;
+    }
+}
@@ -0,0 +1,153 @@
+package com.danielfoord.lox;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Where print writes. Text is gathered in a large buffer and handed to the target in big chunks, so a
+ * script printing millions of lines doesn't pay for a synchronized, flushing write per line. Numbers are
+ * formatted straight into the buffer.
+ *
+ * The interpreter flushes at the end of every run, when it fails, and before readLine waits for input.
+ * A sink is used by one run at a time and isn't safe to share between threads.
+ */
+public final class OutputSink implements Flushable, Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final Appendable target;
+    private final char[] buffer;
+    private int count = 0;
+
+    private OutputSink(Appendable target) {
+        this(target, BUFFER_SIZE);
+    }
+
+    private OutputSink(Appendable target, int bufferSize) {
+        this.target = target;
+        this.buffer = new char[bufferSize];
+    }
+
+    // Writes to anything that takes text, a PrintStream such as System.out, a Writer or a StringBuilder
+    public static OutputSink of(Appendable target) {
+        return new OutputSink(target);
+    }
+
+    // Writes UTF-8 to the file, replacing it, close the sink when done
+    public static OutputSink toFile(Path file) throws IOException {
+        return new OutputSink(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8));
+    }
+
+    // Keeps everything in memory, read it back with contents()
+    public static OutputSink toMemory() {
+        return new OutputSink(new StringBuilder());
+    }
+
+    // With a smaller buffer, for sinks that come and go such as those of parallel workers
+    static OutputSink toMemory(int bufferSize) {
+        return new OutputSink(new StringBuilder(), bufferSize);
+    }
+
+    // Everything printed so far, for a sink made by toMemory
+    public String contents() {
+        if (!(target instanceof StringBuilder))
+            throw new IllegalStateException("Only a sink made by toMemory keeps its contents");
+        flush();
+        return target.toString();
+    }
+
+    void println(String text) {
+        int length = text.length();
+        if (count + length + NEWLINE.length() > buffer.length) {
+            flush();
+            if (length > buffer.length / 2) {
+                write(text);
+                write(NEWLINE);
+                return;
+            }
+        }
+        text.getChars(0, length, buffer, count);
+        count += length;
+        newline();
+    }
+
+    // Text that ends its own lines, such as what a parallel worker printed
+    void append(String text) {
+        int length = text.length();
+        if (count + length > buffer.length) {
+            flush();
+            if (length > buffer.length / 2) {
+                write(text);
+                return;
+            }
+        }
+        text.getChars(0, length, buffer, count);
+        count += length;
+    }
+
+    void println(double number) {
+        if (count + Numbers.MAX_LENGTH + NEWLINE.length() > buffer.length) flush();
+        int end = Numbers.format(number, buffer, count);
+        if (end < 0) {
+            println(Numbers.slowToString(number));
+            return;
+        }
+        count = end;
+        newline();
+    }
+
+    private void newline() {
+        for (int i = 0; i < NEWLINE.length(); i++) {
+            buffer[count++] = NEWLINE.charAt(i);
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (count > 0) {
+            try {
+                if (target instanceof Writer) {
+                    ((Writer) target).write(buffer, 0, count);
+                } else if (target instanceof StringBuilder) {
+                    ((StringBuilder) target).append(buffer, 0, count);
+                } else {
+                    target.append(CharBuffer.wrap(buffer, 0, count));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                count = 0;
+            }
+        }
+        if (target instanceof Flushable) {
+            try {
+                ((Flushable) target).flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (target instanceof Closeable) ((Closeable) target).close();
+    }
+
+    private void write(String text) {
+        try {
+            target.append(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.functions.LoxCallable;
+import com.danielfoord.lox.expressions.Expr;
+import com.danielfoord.lox.expressions.VariableExpr;
+import com.danielfoord.lox.functions.LoxFunction;
+import com.danielfoord.lox.globals.LoxNative;
+import com.danielfoord.lox.statements.FunctionStmt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Natives that run a callback over the elements of a list, a Float64Array or the numbers 0 to n - 1 on the
+ * common ForkJoin pool. The elements are split into chunks, each run by a worker interpreter with its own
+ * environment and call stack, and the results come back in element order. What workers print is held
+ * until they're done and then printed in order too.
+ *
+ * Callbacks share the globals and whatever they capture, so a function that assigns to a variable declared
+ * outside of it, which the resolver marks, is refused, as is one that calls such a function through a
+ * variable, however deep. Functions called through parameters, fields or methods aren't followed, and
+ * changing a shared list, map or instance from a callback isn't checked; both race.
+ */
+public final class Parallel {
+
+    // Elements a chunk gets at least, a Lox call costs around as much as handing a chunk to another thread
+    private static final int MIN_CHUNK = 16;
+    // Chunks per thread, so a thread that finishes early can take work from a slow one
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final String[] ARGUMENTS = {"no arguments", "one argument", "two arguments"};
+
+    private Parallel() {
+    }
+
+    @LoxNative
+    public static LoxList parallelMap(Interpreter interpreter, Object items, Object function) throws Exception {
+        LoxCallable callback = callback(interpreter, function, 1, "parallelMap");
+        int size = size(items, "parallelMap");
+        interpreter.reserve(LoxList.LIST + (long) size * LoxList.VALUE_SLOT);
+
+        Object[] results = new Object[size];
+        run(interpreter, size, (worker, start, end, failed) -> {
+            for (int i = start; i < end && !failed.failed; i++) {
+                results[i] = worker.callBack(callback, element(items, i));
+            }
+            return null;
+        });
+        return new LoxList(results);
+    }
+
+    @LoxNative
+    public static LoxList parallelFilter(Interpreter interpreter, Object items, Object function) throws Exception {
+        LoxCallable callback = callback(interpreter, function, 1, "parallelFilter");
+        int size = size(items, "parallelFilter");
+
+        List<Object> chunks = run(interpreter, size, (worker, start, end, failed) -> {
+            List<Object> kept = new ArrayList<>();
+            for (int i = start; i < end && !failed.failed; i++) {
+                Object element = element(items, i);
+                if (worker.isTruthy(worker.callBack(callback, element))) kept.add(element);
+            }
+            return kept;
+        });
+
+        LoxList result = new LoxList();
+        for (Object kept : chunks) {
+            for (Object element : (List<?>) kept) result.add(element);
+        }
+        interpreter.reserve(LoxList.LIST + (long) result.size() * LoxList.VALUE_SLOT);
+        return result;
+    }
+
+    // The function must be associative, chunks are reduced on their own and then combined in order,
+    // starting from the initial value
+    @LoxNative
+    public static Object parallelReduce(Interpreter interpreter, Object items, Object function, Object initial) throws Exception {
+        LoxCallable callback = callback(interpreter, function, 2, "parallelReduce");
+        int size = size(items, "parallelReduce");
+
+        List<Object> chunks = run(interpreter, size, (worker, start, end, failed) -> {
+            Object result = element(items, start);
+            for (int i = start + 1; i < end && !failed.failed; i++) {
+                result = worker.callBack(callback, result, element(items, i));
+            }
+            return result;
+        });
+
+        Object result = initial;
+        for (Object chunk : chunks) {
+            result = interpreter.callBack(callback, result, chunk);
+        }
+        return result;
+    }
+
+    @LoxNative
+    public static void parallelForEach(Interpreter interpreter, Object items, Object function) throws Exception {
+        LoxCallable callback = callback(interpreter, function, 1, "parallelForEach");
+        int size = size(items, "parallelForEach");
+
+        run(interpreter, size, (worker, start, end, failed) -> {
+            for (int i = start; i < end && !failed.failed; i++) {
+                worker.callBack(callback, element(items, i));
+            }
+            return null;
+        });
+    }
+
+    // Runs the work over 0 until size in chunks and returns what each chunk returned, in order.
+    // The first chunk to fail stops the others, and its error is thrown once its output is printed
+    private static List<Object> run(Interpreter interpreter, int size, Work work) throws Exception {
+        int threads = ForkJoinPool.getCommonPoolParallelism();
+        int count = Math.min((size + MIN_CHUNK - 1) / MIN_CHUNK, threads * CHUNKS_PER_THREAD);
+        Failure failed = new Failure();
+        List<Chunk> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // Spread the remainder so chunk sizes differ by at most one
+            int start = (int) ((long) size * i / count);
+            int end = (int) ((long) size * (i + 1) / count);
+            chunks.add(new Chunk(interpreter.fork(), start, end, work, failed));
+        }
+
+        ForkJoinTask.invokeAll(chunks);
+
+        List<Object> results = new ArrayList<>(count);
+        for (Chunk chunk : chunks) {
+            interpreter.absorb(chunk.worker);
+            if (chunk.error != null)
+                throw chunk.error;
+            results.add(chunk.result);
+        }
+        return results;
+    }
+
+    // The function as a callback, refusing anything that would race with the threads it runs on
+    static LoxCallable callback(Interpreter interpreter, Object function, int arity, String name) {
+        if (!(function instanceof LoxCallable) || function instanceof BuiltinMethod)
+            throw new IllegalArgumentException("Expected function argument to '" + name + "'");
+        LoxCallable callable = (LoxCallable) function;
+        if (callable.arity() != arity)
+            throw new IllegalArgumentException("'" + name + "' expects a function of " + ARGUMENTS[arity] + ".");
+
+        LoxFunction code = null;
+        if (function instanceof LoxFunction)
+            code = (LoxFunction) function;
+        else if (function instanceof LoxClass)
+            code = ((LoxClass) function).findMethod("init");
+        if (code == null)
+            return callable;
+
+        LoxFunction assigns = assignsOutside(function, interpreter.globals, Collections.newSetFromMap(new IdentityHashMap<>()));
+        if (assigns != null && assigns.getDeclaration() == code.getDeclaration())
+            throw new IllegalArgumentException("'" + name + "' can't run '" + code.getName()
+                    + "' in parallel, it assigns to a variable declared outside of it.");
+        if (assigns != null)
+            throw new IllegalArgumentException("'" + name + "' can't run '" + code.getName() + "' in parallel, it calls '"
+                    + assigns.getName() + "', which assigns to a variable declared outside of it.");
+        return callable;
+    }
+
+    // The function, or one it calls through a variable declared outside of it, that assigns to a variable
+    // declared outside of itself, or null if none does. Callees are looked up as they are now, and calls
+    // through parameters, fields and methods aren't followed
+    private static LoxFunction assignsOutside(Object callee, Environment globals, Set<Object> seen) {
+        if (!seen.add(callee))
+            return null;
+        LoxFunction function;
+        if (callee instanceof LoxFunction) {
+            function = (LoxFunction) callee;
+        } else if (callee instanceof LoxClass && ((LoxClass) callee).findMethod("init") != null) {
+            // Bound to no instance, its closure has the shape it has when it runs
+            function = ((LoxClass) callee).findMethod("init").bind(null);
+        } else {
+            return null;
+        }
+
+        FunctionStmt declaration = function.getDeclaration();
+        if (declaration.assignsOutside)
+            return function;
+        for (VariableExpr call : declaration.calls) {
+            Object next = call.depth == Expr.GLOBAL
+                    ? globals.values().get(call.name)
+                    : function.getClosure().getAt(call.depth, call.name);
+            LoxFunction assigns = assignsOutside(next, globals, seen);
+            if (assigns != null)
+                return assigns;
+        }
+        return null;
+    }
+
+    private static int size(Object items, String name) {
+        if (items instanceof LoxList)
+            return ((LoxList) items).size();
+        if (items instanceof Float64Array)
+            return ((Float64Array) items).length();
+        if (items instanceof Double) {
+            double count = (double) items;
+            if (count >= 0 && count <= Integer.MAX_VALUE && count == Math.rint(count))
+                return (int) count;
+        }
+        throw new IllegalArgumentException("Expected a list, a Float64Array or a count as the first argument to '" + name + "'");
+    }
+
+    private static Object element(Object items, int index) {
+        if (items instanceof LoxList)
+            return ((LoxList) items).get(index);
+        if (items instanceof Float64Array)
+            return ((Float64Array) items).get(index);
+        return (double) index;
+    }
+
+    private interface Work {
+        Object run(Interpreter worker, int start, int end, Failure failed) throws Exception;
+    }
+
+    // Set once a chunk fails, the others check it between elements
+    private static final class Failure {
+        volatile boolean failed = false;
+    }
+
+    private static final class Chunk extends RecursiveAction {
+        private final Interpreter worker;
+        private final int start;
+        private final int end;
+        private final Work work;
+        private final Failure failed;
+        private Object result;
+        private Exception error;
+
+        Chunk(Interpreter worker, int start, int end, Work work, Failure failed) {
+            this.worker = worker;
+            this.start = start;
+            this.end = end;
+            this.work = work;
+            this.failed = failed;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                result = work.run(worker, start, end, failed);
+            } catch (StackOverflowError overflow) {
+                // Unwound by now, so there's room to report it like any other runtime error, and the
+                // other chunks are still absorbed
+                var error = new RuntimeError(worker.callStack.callerLine(), "Stack overflow.");
+                error.captureTrace(worker.callStack);
+                fail(error);
+            } catch (Exception error) {
+                fail(error);
+            }
+        }
+
+        private void fail(Exception error) {
+            this.error = error;
+            failed.failed = true;
+        }
+    }
+}
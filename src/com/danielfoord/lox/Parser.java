@@ -9,10 +9,19 @@ import java.util.List;
 
 public class Parser {
     private final List<Token> tokens;
+    private final ErrorReporter reporter;
+    // Set when scopes are resolved during parsing instead of in a separate pass
+    private final Resolver resolver;
     private int current = 0;
 
-    public Parser(List<Token> tokens) {
+    public Parser(List<Token> tokens, ErrorReporter reporter) {
+        this(tokens, reporter, null);
+    }
+
+    public Parser(List<Token> tokens, ErrorReporter reporter, Resolver resolver) {
         this.tokens = tokens;
+        this.reporter = reporter;
+        this.resolver = resolver;
     }
 
     public List<Stmt> parse() {
@@ -23,6 +32,19 @@ public class Parser {
         return statements;
     }
 
+    // Parses one top level declaration at a time, for front ends that track where each one starts and ends
+    Stmt parseDeclaration() {
+        return declaration();
+    }
+
+    boolean hasMoreTokens() {
+        return !isAtEnd();
+    }
+
+    Token nextToken() {
+        return peek();
+    }
+
     //#region Statements
     private Stmt declaration() {
         return declaration(false);
@@ -45,6 +67,7 @@ public class Parser {
 
     private Stmt varDeclaration() {
         Token name = consume(TokenType.IDENTIFIER, "Expect variable name.");
+        if (resolver != null) resolver.declare(name.lexeme, name.line);
 
         Expr initializer = null;
         if (peekMatch(TokenType.EQUAL)) {
@@ -52,52 +75,92 @@ public class Parser {
         }
 
         consume(TokenType.SEMICOLON, "Expect ';' after expression.");
-        return new VarStmt(name, initializer);
+        if (resolver != null) resolver.define(name.lexeme, name.line);
+        return new VarStmt(name.lexeme, name.line, initializer);
     }
 
     private Stmt classDeclaration() {
         Token name = consume(TokenType.IDENTIFIER, "Expect class name.");
         VariableExpr superClass = null;
         if (peekMatch(TokenType.LESS)) {
-            consume(TokenType.IDENTIFIER, "Expect parent class name.");
-            superClass = new VariableExpr(previous());
+            Token superName = consume(TokenType.IDENTIFIER, "Expect parent class name.");
+            superClass = new VariableExpr(superName.lexeme, superName.line);
         }
 
-        consume(TokenType.LEFT_BRACE, "Expect '{' before class body.");
+        Resolver.ClassType enclosingClass = null;
+        if (resolver != null) enclosingClass = resolver.beginClass(name.lexeme, name.line, superClass);
+        try {
+            consume(TokenType.LEFT_BRACE, "Expect '{' before class body.");
 
-        List<Stmt> methods = new ArrayList<>();
-        while (!checkNext(TokenType.RIGHT_BRACE) && !isAtEnd()) {
-            methods.add(function("method"));
-        }
+            List<Stmt> methods = new ArrayList<>();
+            while (!checkNext(TokenType.RIGHT_BRACE) && !isAtEnd()) {
+                methods.add(function("method"));
+            }
 
-        consume(TokenType.RIGHT_BRACE, "Expect '}' after class body.");
-        return new ClassStmt(name, superClass, methods);
+            consume(TokenType.RIGHT_BRACE, "Expect '}' after class body.");
+            return new ClassStmt(name.lexeme, name.line, superClass, methods);
+        } finally {
+            if (resolver != null) resolver.endClass(enclosingClass);
+        }
     }
 
     private Stmt function(String kind) {
         Token name = consume(TokenType.IDENTIFIER, "Expect " + kind + " name.");
-        consume(TokenType.LEFT_PAREN, "Expect '(' after " + kind + " name.");
+        Resolver.FunctionType enclosingFunction = null;
+        if (resolver != null) {
+            Resolver.FunctionType type = Resolver.FunctionType.FUNCTION;
+            if (kind.equals("method")) {
+                type = Resolver.methodType(name.lexeme);
+            } else {
+                resolver.declare(name.lexeme, name.line);
+                resolver.define(name.lexeme, name.line);
+            }
+            enclosingFunction = resolver.beginFunction(type);
+        }
+
         List<Token> parameters = new ArrayList<>();
-        if (!checkNext(TokenType.RIGHT_PAREN)) {
-            do {
-                if (parameters.size() >= 255) {
-                    error(peek(), "Cannot have more than 255 parameters.");
-                }
+        List<Stmt> body;
+        Resolver.FunctionScope resolved = null;
+        try {
+            consume(TokenType.LEFT_PAREN, "Expect '(' after " + kind + " name.");
+            if (!checkNext(TokenType.RIGHT_PAREN)) {
+                do {
+                    if (parameters.size() >= 255) {
+                        error(peek(), "Cannot have more than 255 parameters.");
+                    }
+
+                    Token parameter = consume(TokenType.IDENTIFIER, "Expect parameter name.");
+                    if (resolver != null) {
+                        resolver.declare(parameter.lexeme, parameter.line);
+                        resolver.define(parameter.lexeme, parameter.line);
+                    }
+                    parameters.add(parameter);
+                } while (peekMatch(TokenType.COMMA));
+            }
+            consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
+            consume(TokenType.LEFT_BRACE, "Expect '{' before " + kind + " body.");
+            body = block(false);
+            if (resolver != null) resolver.assertLocalVariablesUsed();
+        } finally {
+            if (resolver != null) resolved = resolver.endFunction(enclosingFunction);
+        }
 
-                parameters.add(consume(TokenType.IDENTIFIER, "Expect parameter name."));
-            } while (peekMatch(TokenType.COMMA));
+        var parameterNames = new String[parameters.size()];
+        var parameterLines = new int[parameters.size()];
+        for (var i = 0; i < parameters.size(); i++) {
+            parameterNames[i] = parameters.get(i).lexeme;
+            parameterLines[i] = parameters.get(i).line;
         }
-        consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
-        consume(TokenType.LEFT_BRACE, "Expect '{' before " + kind + " body.");
-        List<Stmt> body = block(false);
-        return new FunctionStmt(name, parameters, body);
+        var function = new FunctionStmt(name.lexeme, name.line, parameterNames, parameterLines, body);
+        if (resolved != null) resolved.fillIn(function);
+        return function;
     }
 
     private Stmt statement(boolean loopStatement) {
         if (peekMatch(TokenType.PRINT))
             return printStatement();
         if (peekMatch(TokenType.LEFT_BRACE))
-            return new BlockStmt(block(loopStatement));
+            return new BlockStmt(scopedBlock(loopStatement));
         if (peekMatch(TokenType.IF))
             return ifStatement(loopStatement);
         if (peekMatch(TokenType.WHILE))
@@ -119,13 +182,14 @@ public class Parser {
 
     private Stmt returnStatement() {
         Token keyword = previous();
+        if (resolver != null) resolver.checkReturn(keyword.line);
         Expr value = null;
         if (!checkNext(TokenType.SEMICOLON)) {
             value = expression();
         }
 
         consume(TokenType.SEMICOLON, "Expect ';' after return value.");
-        return new ReturnStmt(keyword, value);
+        return new ReturnStmt(keyword.line, value);
     }
 
     private Stmt printStatement() {
@@ -134,6 +198,20 @@ public class Parser {
         return new PrintStmt(expression);
     }
 
+    // A block that introduces its own scope, the statements of a function body share the function's scope
+    private List<Stmt> scopedBlock(boolean loopStatement) {
+        if (resolver == null) return block(loopStatement);
+
+        resolver.beginScope();
+        try {
+            List<Stmt> statements = block(loopStatement);
+            resolver.assertLocalVariablesUsed();
+            return statements;
+        } finally {
+            resolver.endScope();
+        }
+    }
+
     private List<Stmt> block(boolean loopStatement) {
         try {
             List<Stmt> statements = new ArrayList<>();
@@ -166,53 +244,81 @@ public class Parser {
     }
 
     private Stmt whileStatement() {
+        int line = previous().line;
         consume(TokenType.LEFT_PAREN, "Expect '(' after 'while'");
         Expr expression = expression();
         consume(TokenType.RIGHT_PAREN, "Expect ')' after condition");
         Stmt statement = statement(true);
-        return new WhileStmt(expression, statement);
+        return new WhileStmt(expression, statement, line);
     }
 
     private Stmt forStatement() {
+        int line = previous().line;
         consume(TokenType.LEFT_PAREN, "Expect '(' after 'for'");
 
-        Stmt initializer;
-        if (peekMatch(TokenType.SEMICOLON)) {
-            initializer = null;
-        } else if (peekMatch((TokenType.VAR))) {
-            initializer = varDeclaration();
-        } else {
-            initializer = expressionStatement();
-        }
+        // An initializer gets wrapped in a block of its own when the loop is desugared below
+        boolean initializerScope = resolver != null && !checkNext(TokenType.SEMICOLON);
+        if (initializerScope) resolver.beginScope();
+        try {
+            Stmt initializer;
+            if (peekMatch(TokenType.SEMICOLON)) {
+                initializer = null;
+            } else if (peekMatch((TokenType.VAR))) {
+                initializer = varDeclaration();
+            } else {
+                initializer = expressionStatement();
+            }
 
-        Expr condition = null;
-        if (!checkNext(TokenType.SEMICOLON)) {
-            condition = expression();
-        }
-        consume(TokenType.SEMICOLON, "Expect ';' after loop condition");
+            Expr condition = null;
+            if (!checkNext(TokenType.SEMICOLON)) {
+                condition = expression();
+            }
+            consume(TokenType.SEMICOLON, "Expect ';' after loop condition");
+
+            // The increment and body share a block that declares nothing itself, so resolving the increment
+            // ahead of the body, in a scope at the same depth, gives the same result as resolving it after
+            Expr increment = null;
+            if (!checkNext(TokenType.RIGHT_PAREN)) {
+                if (resolver != null) resolver.beginScope();
+                try {
+                    increment = expression();
+                } finally {
+                    if (resolver != null) resolver.endScope();
+                }
+            }
+            consume(TokenType.RIGHT_PAREN, "Expect ')' after for clauses");
+
+            Stmt body;
+            if (resolver != null && increment != null) {
+                resolver.beginScope();
+                try {
+                    body = statement(true);
+                } finally {
+                    resolver.endScope();
+                }
+            } else {
+                body = statement(true);
+            }
 
-        Expr increment = null;
-        if (!checkNext(TokenType.RIGHT_PAREN)) {
-            increment = expression();
-        }
-        consume(TokenType.RIGHT_PAREN, "Expect ')' after for clauses");
-        Stmt body = statement(true);
+            if (increment != null) {
+                body = new BlockStmt(Arrays.asList(body, new ExpressionStmt(increment)));
+            }
 
-        if (increment != null) {
-            body = new BlockStmt(Arrays.asList(body, new ExpressionStmt(increment)));
-        }
+            if (condition == null) {
+                condition = new LiteralExpr(true);
+            }
 
-        if (condition == null) {
-            condition = new LiteralExpr(true);
-        }
+            body = new WhileStmt(condition, body, line);
 
-        body = new WhileStmt(condition, body);
+            if (initializer != null) {
+                body = new BlockStmt(Arrays.asList(initializer, body));
+            }
 
-        if (initializer != null) {
-            body = new BlockStmt(Arrays.asList(initializer, body));
+            if (initializerScope) resolver.assertLocalVariablesUsed();
+            return body;
+        } finally {
+            if (initializerScope) resolver.endScope();
         }
-
-        return body;
     }
 
     private Stmt expressionStatement() {
@@ -223,157 +329,238 @@ public class Parser {
     //#endregion
 
     //#region Expressions
-    private Expr expression() {
-        return assignment();
+    // Binding power of infix operators, lowest first
+    private enum Precedence {
+        NONE,
+        ASSIGNMENT, // =
+        OR,         // or
+        AND,        // and
+        EQUALITY,   // == !=
+        COMPARISON, // < > <= >=
+        TERM,       // + - ++
+        FACTOR,     // * /
+        UNARY,      // ! -
+        CALL,       // . () []
+        PRIMARY;
+
+        // values() copies the array on every call
+        private static final Precedence[] VALUES = values();
+
+        Precedence next() {
+            return VALUES[ordinal() + 1];
+        }
     }
 
-    private Expr assignment() {
-        Expr expr = logicOr();
+    private interface PrefixRule {
+        Expr parse(Parser parser, Token token);
+    }
 
-        if (peekMatch(TokenType.EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-
-            if (expr instanceof VariableExpr) {
-                Token name = ((VariableExpr) expr).name;
-                return new AssignExpr(name, value);
-            } else if (expr instanceof GetExpr) {
-                GetExpr get = (GetExpr) expr;
-                return new SetExpr(get.object, get.name, value);
-            }
+    private interface InfixRule {
+        Expr parse(Parser parser, Expr left, Token token);
+    }
 
-            throw error(equals, "Invalid assignment target.");
-        }
+    private static final PrefixRule[] prefixRules = new PrefixRule[TokenType.values().length];
+    private static final InfixRule[] infixRules = new InfixRule[TokenType.values().length];
+    private static final Precedence[] infixPrecedence = new Precedence[TokenType.values().length];
 
-        return expr;
-    }
+    static {
+        prefix(TokenType.FALSE, (parser, token) -> new LiteralExpr(false));
+        prefix(TokenType.TRUE, (parser, token) -> new LiteralExpr(true));
+        prefix(TokenType.NIL, (parser, token) -> new LiteralExpr(null));
+        prefix(TokenType.NUMBER, (parser, token) -> new LiteralExpr(token.literal));
+        prefix(TokenType.STRING, (parser, token) -> new LiteralExpr(token.literal));
+        prefix(TokenType.IDENTIFIER, Parser::variable);
+        prefix(TokenType.THIS, Parser::thisExpression);
+        prefix(TokenType.SUPER, Parser::superExpression);
+        prefix(TokenType.LEFT_PAREN, Parser::grouping);
+        prefix(TokenType.LEFT_BRACKET, Parser::listOrMap);
+        prefix(TokenType.BANG, Parser::unary);
+        prefix(TokenType.MINUS, Parser::unary);
 
-    private Expr logicOr() {
-        Expr expression = logicAnd();
+        infix(TokenType.EQUAL, Precedence.ASSIGNMENT, Parser::assignment);
+        infix(TokenType.OR, Precedence.OR, Parser::logic);
+        infix(TokenType.AND, Precedence.AND, Parser::logic);
+        infix(TokenType.BANG_EQUAL, Precedence.EQUALITY, Parser::binary);
+        infix(TokenType.EQUAL_EQUAL, Precedence.EQUALITY, Parser::binary);
+        infix(TokenType.GREATER, Precedence.COMPARISON, Parser::binary);
+        infix(TokenType.GREATER_EQUAL, Precedence.COMPARISON, Parser::binary);
+        infix(TokenType.LESS, Precedence.COMPARISON, Parser::binary);
+        infix(TokenType.LESS_EQUAL, Precedence.COMPARISON, Parser::binary);
+        infix(TokenType.PLUS, Precedence.TERM, Parser::binary);
+        infix(TokenType.MINUS, Precedence.TERM, Parser::binary);
+        infix(TokenType.PLUS_PLUS, Precedence.TERM, Parser::binary);
+        infix(TokenType.STAR, Precedence.FACTOR, Parser::binary);
+        infix(TokenType.SLASH, Precedence.FACTOR, Parser::binary);
+        infix(TokenType.LEFT_PAREN, Precedence.CALL, Parser::finishCall);
+        infix(TokenType.DOT, Precedence.CALL, Parser::property);
+        infix(TokenType.LEFT_BRACKET, Precedence.CALL, Parser::index);
+    }
 
-        while (peekMatch(TokenType.OR)) {
-            Token operator = previous();
-            Expr rightExpression = logicAnd();
-            expression = new LogicExpr(expression, operator, rightExpression);
-        }
+    private static void prefix(TokenType type, PrefixRule rule) {
+        prefixRules[type.ordinal()] = rule;
+    }
 
-        return expression;
+    private static void infix(TokenType type, Precedence precedence, InfixRule rule) {
+        infixRules[type.ordinal()] = rule;
+        infixPrecedence[type.ordinal()] = precedence;
     }
 
-    private Expr logicAnd() {
-        Expr expression = equality();
+    private Expr expression() {
+        return expression(Precedence.ASSIGNMENT);
+    }
 
-        while (peekMatch(TokenType.AND)) {
-            Token operator = previous();
-            Expr rightExpression = equality();
-            expression = new LogicExpr(expression, operator, rightExpression);
+    // Parses an expression whose operators all bind at least as tightly as the given precedence.
+    // Left associative operators are folded in this loop, so long operator chains don't grow the stack.
+    private Expr expression(Precedence precedence) {
+        PrefixRule prefix = prefixRules[peek().type.ordinal()];
+        if (prefix == null) {
+            throw error(peek(), "Expect expression.");
         }
 
-        return expression;
-    }
+        Expr expression = prefix.parse(this, advance());
 
-    private Expr equality() {
-        Expr expr = comparison();
+        while (true) {
+            int next = peek().type.ordinal();
+            InfixRule infix = infixRules[next];
+            if (infix == null || infixPrecedence[next].compareTo(precedence) < 0) {
+                return expression;
+            }
+            expression = infix.parse(this, expression, advance());
+        }
+    }
 
-        while (peekMatch(TokenType.BANG_EQUAL, TokenType.EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new BinaryExpr(expr, operator, right);
+    private Expr assignment(Expr target, Token equals) {
+        // Right associative, so the value is parsed at the same precedence
+        Expr value = expression(Precedence.ASSIGNMENT);
+
+        if (target instanceof VariableExpr) {
+            VariableExpr variable = (VariableExpr) target;
+            var assign = new AssignExpr(variable.name, variable.line, value);
+            if (resolver != null) assign.depth = resolver.resolveAssignment(variable.name);
+            return assign;
+        } else if (target instanceof GetExpr) {
+            GetExpr get = (GetExpr) target;
+            return new SetExpr(get.object, get.name, get.line, value);
+        } else if (target instanceof IndexExpr) {
+            IndexExpr index = (IndexExpr) target;
+            return new IndexSetExpr(index.object, index.index, index.line, value);
         }
 
-        return expr;
+        throw error(equals, "Invalid assignment target.");
     }
 
-    private Expr comparison() {
-        Expr expr = addition();
-
-        while (peekMatch(TokenType.GREATER, TokenType.GREATER_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = addition();
-            expr = new BinaryExpr(expr, operator, right);
-        }
+    private Expr logic(Expr left, Token operator) {
+        Expr right = expression(infixPrecedence[operator.type.ordinal()].next());
+        return new LogicExpr(left, operator.type, right);
+    }
 
-        return expr;
+    private Expr binary(Expr left, Token operator) {
+        Expr right = expression(infixPrecedence[operator.type.ordinal()].next());
+        return new BinaryExpr(left, operator.type, operator.line, right);
     }
 
-    private Expr addition() {
-        Expr expr = multiplication();
+    private Expr unary(Token operator) {
+        Expr right = expression(Precedence.UNARY);
+        return new UnaryExpr(operator.type, operator.line, right);
+    }
 
-        while (peekMatch(TokenType.PLUS, TokenType.MINUS, TokenType.PLUS_PLUS)) {
-            Token operator = previous();
-            Expr right = multiplication();
-            expr = new BinaryExpr(expr, operator, right);
+    private Expr variable(Token name) {
+        var variable = new VariableExpr(name.lexeme, name.line);
+        // An assignment target is resolved as an assignment once its value has been parsed
+        if (resolver != null && !checkNext(TokenType.EQUAL)) {
+            resolver.resolveVariable(variable);
         }
+        return variable;
+    }
 
-        return expr;
+    private Expr thisExpression(Token keyword) {
+        var expression = new ThisExpr(keyword.line);
+        if (resolver != null) resolver.resolveThis(expression);
+        return expression;
     }
 
-    private Expr multiplication() {
-        Expr expr = unary();
+    private Expr property(Expr object, Token dot) {
+        Token name = consume(TokenType.IDENTIFIER, "Expect property name after '.'");
+        return new GetExpr(object, name.lexeme, name.line);
+    }
 
-        while (peekMatch(TokenType.STAR, TokenType.SLASH)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new BinaryExpr(expr, operator, right);
-        }
+    private Expr superExpression(Token keyword) {
+        consume(TokenType.DOT, "Expect method '.' after 'super'");
+        Token method = consume(TokenType.IDENTIFIER, "Expect superclass method call");
+        var expression = new SuperExpr(method.lexeme, keyword.line);
+        if (resolver != null) resolver.resolveSuper(expression);
+        return expression;
+    }
 
-        return expr;
+    private Expr grouping(Token paren) {
+        Expr expr = expression();
+        consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
+        return new GroupingExpr(expr);
     }
 
-    private Expr unary() {
-        if (peekMatch(TokenType.BANG, TokenType.MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new UnaryExpr(operator, right);
+    // [a, b] is a list and [key: value] a map, [:] is the empty map
+    private Expr listOrMap(Token bracket) {
+        if (peekMatch(TokenType.COLON)) {
+            consume(TokenType.RIGHT_BRACKET, "Expect ']' after ':' of an empty map.");
+            return new MapExpr(new ArrayList<>(), new ArrayList<>(), bracket.line);
+        }
+        if (checkNext(TokenType.RIGHT_BRACKET)) {
+            advance();
+            return new ListExpr(new ArrayList<>(), bracket.line);
         }
 
-        return call();
-    }
-
-    private Expr call() {
-        Expr expression = primary();
+        Expr first = expression();
+        if (peekMatch(TokenType.COLON))
+            return map(first, bracket);
 
-        while (true) {
-            if (peekMatch(TokenType.LEFT_PAREN)) {
-                expression = finishCall(expression);
-            } else if (peekMatch(TokenType.DOT)) {
-                Token name = consume(TokenType.IDENTIFIER, "Expect property name after '.'");
-                expression = new GetExpr(expression, name);
-            } else {
-                break;
-            }
+        List<Expr> elements = new ArrayList<>();
+        elements.add(first);
+        while (peekMatch(TokenType.COMMA)) {
+            // A trailing comma is fine, lists are often written one element per line
+            if (checkNext(TokenType.RIGHT_BRACKET)) break;
+            elements.add(expression());
         }
-        return expression;
+        consume(TokenType.RIGHT_BRACKET, "Expect ']' after list elements.");
+        return new ListExpr(elements, bracket.line);
+    }
+
+    private Expr map(Expr firstKey, Token bracket) {
+        List<Expr> keys = new ArrayList<>();
+        List<Expr> values = new ArrayList<>();
+        keys.add(firstKey);
+        values.add(expression());
+        while (peekMatch(TokenType.COMMA)) {
+            if (checkNext(TokenType.RIGHT_BRACKET)) break;
+            keys.add(expression());
+            consume(TokenType.COLON, "Expect ':' after map key.");
+            values.add(expression());
+        }
+        consume(TokenType.RIGHT_BRACKET, "Expect ']' after map entries.");
+        return new MapExpr(keys, values, bracket.line);
     }
 
-    private Expr primary() {
-        if (peekMatch(TokenType.FALSE))
-            return new LiteralExpr(false);
-        if (peekMatch(TokenType.TRUE))
-            return new LiteralExpr(true);
-        if (peekMatch(TokenType.NIL))
-            return new LiteralExpr(null);
-        if (peekMatch(TokenType.IDENTIFIER))
-            return new VariableExpr(previous());
-        if (peekMatch(TokenType.NUMBER, TokenType.STRING))
-            return new LiteralExpr(previous().literal);
-        if (peekMatch(TokenType.THIS))
-            return new ThisExpr(previous());
-
-        if (peekMatch(TokenType.SUPER)) {
-            Token keyword = previous();
-            consume(TokenType.DOT, "Expect method '.' after 'super'");
-            Token method = consume(TokenType.IDENTIFIER, "Expect superclass method call");
-            return new SuperExpr(keyword, method);
-        }
+    private Expr index(Expr object, Token bracket) {
+        Expr index = expression();
+        consume(TokenType.RIGHT_BRACKET, "Expect ']' after index.");
+        return new IndexExpr(object, index, bracket.line);
+    }
 
-        if (peekMatch(TokenType.LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
-            return new GroupingExpr(expr);
+    private Expr finishCall(Expr callee, Token leftParen) {
+        List<Expr> arguments = new ArrayList<>();
+        if (!checkNext(TokenType.RIGHT_PAREN)) {
+            do {
+                if (arguments.size() >= 255) { // Same as Java
+                    error(peek(), "Cannot have more than 255 arguments.");
+                }
+                arguments.add(expression());
+            } while (peekMatch(TokenType.COMMA));
         }
 
-        throw error(peek(), "Expect expression.");
+        Token paren = consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments.");
+
+        var call = new CallExpr(callee, paren.line, arguments);
+        if (resolver != null) resolver.resolveCall(call);
+        return call;
     }
     //#endregion
 
@@ -392,12 +579,10 @@ public class Parser {
         return previous();
     }
 
-    private boolean peekMatch(TokenType... types) {
-        for (TokenType type : types) {
-            if (checkNext(type)) {
-                advance();
-                return true;
-            }
+    private boolean peekMatch(TokenType type) {
+        if (checkNext(type)) {
+            advance();
+            return true;
         }
 
         return false;
@@ -423,7 +608,7 @@ public class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }
 
@@ -453,22 +638,6 @@ public class Parser {
         }
     }
 
-    private Expr finishCall(Expr callee) {
-        List<Expr> arguments = new ArrayList<>();
-        if (!checkNext(TokenType.RIGHT_PAREN)) {
-            do {
-                if (arguments.size() >= 255) { // Same as Java
-                    error(peek(), "Cannot have more than 255 arguments.");
-                }
-                arguments.add(expression());
-            } while (peekMatch(TokenType.COMMA));
-        }
-
-        Token paren = consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments.");
-
-        return new CallExpr(callee, paren, arguments);
-    }
-
     private static class ParseError extends RuntimeException {
         private static final long serialVersionUID = 4603695572380937534L;
     }
@@ -0,0 +1,21 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.statements.Stmt;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parsed and resolved script, made by LoxEngine.compile.
+ * Programs don't change once compiled, so one can be run by any number of contexts at the same time.
+ * The only thing written while running is each call expression's cached callee, which is replaced whole
+ * and only reused by a context whose globals it was cached against.
+ */
+public final class Program {
+
+    final List<Stmt> statements;
+
+    Program(List<Stmt> statements) {
+        this.statements = Collections.unmodifiableList(statements);
+    }
+}
@@ -0,0 +1,95 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.statements.Stmt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state a REPL keeps between lines. An entry can span several lines: each line is scanned once as it
+ * comes in and its tokens are held until brackets balance, then the entry is parsed, resolved and run.
+ * Only lines inside a string that spans lines are held as text, since their tokens depend on what follows.
+ * Resolution results live on the AST, so nothing is kept for entries once they have run.
+ */
+final class ReplSession {
+
+    private final ErrorReporter reporter;
+    private final Interpreter interpreter;
+    private final Resolver resolver;
+    private final List<Token> tokens = new ArrayList<>();
+    private final StringBuilder openString = new StringBuilder();
+    private int openStringLine;
+    private int line = 1;
+    private int depth = 0;
+
+    ReplSession(ErrorReporter reporter, Interpreter interpreter) {
+        this.reporter = reporter;
+        this.interpreter = interpreter;
+        this.resolver = new Resolver(reporter);
+    }
+
+    // True while an entry is waiting for more lines
+    boolean isContinuing() {
+        return !tokens.isEmpty() || openString.length() > 0;
+    }
+
+    void feed(String text) {
+        int lineNumber = line++;
+        if (openString.length() > 0 || endsInString(text)) {
+            if (openString.length() == 0) openStringLine = lineNumber;
+            openString.append(text).append('\n');
+            if (endsInString(openString))
+                return;
+            text = openString.toString();
+            lineNumber = openStringLine;
+            openString.setLength(0);
+        }
+
+        List<Token> scanned = new Scanner(text, reporter, 0, text.length(), lineNumber).scanTokens();
+        for (Token token : scanned) {
+            if (token.type == TokenType.EOF) break;
+            tokens.add(token);
+            switch (token.type) {
+                case LEFT_BRACE, LEFT_PAREN, LEFT_BRACKET -> depth++;
+                case RIGHT_BRACE, RIGHT_PAREN, RIGHT_BRACKET -> depth--;
+            }
+        }
+
+        // Keep reading while something is left open, a scanning error ends the entry straight away
+        if (depth > 0 && !reporter.hadError)
+            return;
+
+        tokens.add(scanned.get(scanned.size() - 1));
+        run();
+    }
+
+    private void run() {
+        if (!reporter.hadError) {
+            List<Stmt> statements = new Parser(tokens, reporter).parse();
+            if (!reporter.hadError) {
+                // Like a script, an entry still runs when the resolver reports something
+                resolver.resolve(statements);
+                interpreter.interpret(statements);
+            }
+        }
+
+        tokens.clear();
+        line = 1;
+        depth = 0;
+        reporter.hadError = false;
+        reporter.hadRuntimeError = false;
+    }
+
+    private static boolean endsInString(CharSequence text) {
+        boolean inString = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                inString = !inString;
+            } else if (!inString && c == '/' && i + 1 < text.length() && text.charAt(i + 1) == '/') {
+                while (i < text.length() && text.charAt(i) != '\n') i++;
+            }
+        }
+        return inString;
+    }
+}
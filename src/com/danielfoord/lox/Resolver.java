@@ -3,20 +3,28 @@ package com.danielfoord.lox;
 import com.danielfoord.lox.expressions.*;
 import com.danielfoord.lox.statements.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
+/**
+ * Resolves local variables to their scope depth and reports static errors.
+ * Either walks a parsed program, or is driven by the Parser as it goes when the fused front end is used,
+ * in which case the Parser calls the hooks below in the same order this visitor would.
+ */
 public class Resolver implements StmtVisitor<Void>, ExprVisitor<Void> {
 
-    private final Interpreter interpreter;
-    private final Stack<Map<String, ScopeVariable>> scopes = new Stack<>();
+    // Plain array backed stack, the innermost scope is last
+    private final ArrayList<Map<String, ScopeVariable>> scopes = new ArrayList<>();
+    // The functions being resolved, innermost last, so assignments can be checked against them
+    private final ArrayList<FunctionScope> functions = new ArrayList<>();
+    private final ErrorReporter reporter;
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
 
-    public Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    public Resolver(ErrorReporter reporter) {
+        this.reporter = reporter;
     }
 
     //#region Statements
@@ -34,11 +42,11 @@ public class Resolver implements StmtVisitor<Void>, ExprVisitor<Void> {
 
     @Override
     public Void visitVarStmt(VarStmt statement) {
-        declare(statement.name);
+        declare(statement.name, statement.line);
         if (statement.initializer != null) {
             resolve(statement.initializer);
         }
-        define(statement.name);
+        define(statement.name, statement.line);
         return null;
     }
 
@@ -73,21 +81,15 @@ public class Resolver implements StmtVisitor<Void>, ExprVisitor<Void> {
 
     @Override
     public Void visitFunctionStmt(FunctionStmt statement) {
-        declare(statement.name);
-        define(statement.name);
+        declare(statement.name, statement.line);
+        define(statement.name, statement.line);
         resolveFunction(statement, FunctionType.FUNCTION);
         return null;
     }
 
     @Override
     public Void visitReturnStmt(ReturnStmt statement) {
-        if (currentFunction == FunctionType.NONE) {
-            Lox.error(statement.keyword, "Cannot return from top-level code.");
-        }
-
-        if (currentFunction == FunctionType.INITIALIZER) {
-            Lox.error(statement.keyword, "Cannot return from an initializer.");
-        }
+        checkReturn(statement.line);
 
         if (statement.value != null) {
             resolve(statement.value);
@@ -97,41 +99,14 @@ public class Resolver implements StmtVisitor<Void>, ExprVisitor<Void> {
 
     @Override
     public Void visitClassStmt(ClassStmt statement) {
-        ClassType enclosingClass = currentClass;
-        currentClass = ClassType.CLASS;
-
-        declare(statement.name);
-        define(statement.name);
-
-        if (statement.superClass != null && statement.name.lexeme.equals(statement.superClass.name.lexeme)) {
-            Lox.error(statement.superClass.name, "A class cannot inherit from itself.");
-        }
-
-        if (statement.superClass != null) {
-            currentClass = ClassType.SUBCLASS;
-            resolve(statement.superClass);
-            beginScope();
-            scopes.peek().put("super", new ScopeVariable(null, VariableState.DECLARED));
-        }
-
-        beginScope();
-        scopes.peek().put("this", new ScopeVariable(null, VariableState.DECLARED));
+        ClassType enclosingClass = beginClass(statement.name, statement.line, statement.superClass);
 
         for (Stmt method : statement.methods) {
             var fnStmt = (FunctionStmt) method;
-            resolveFunction((FunctionStmt) method, fnStmt.name.lexeme.equals("init")
-                    ? FunctionType.INITIALIZER
-                    : FunctionType.METHOD);
+            resolveFunction(fnStmt, methodType(fnStmt.name));
         }
 
-        endScope();
-
-        if (statement.superClass != null) {
-            endScope();
-        }
-
-        currentClass = enclosingClass;
-
+        endClass(enclosingClass);
         return null;
     }
     //#endregion
@@ -163,21 +138,14 @@ public class Resolver implements StmtVisitor<Void>, ExprVisitor<Void> {
 
     @Override
     public Void visitVariableExpr(VariableExpr expression) {
-        if (!scopes.empty()) {
-            var scopeVariable = scopes.peek().get(expression.name.lexeme);
-            if (scopeVariable != null)
-                if (scopeVariable.state == VariableState.DECLARED)
-                    Lox.error(expression.name, "Cannot read local variable in its own initializer.");
-        }
-
-        resolveLocal(expression, expression.name);
+        resolveVariable(expression);
         return null;
     }
 
     @Override
     public Void visitAssignExpr(AssignExpr expression) {
         resolve(expression.value);
-        resolveLocal(expression, expression.name);
+        expression.depth = resolveAssignment(expression.name);
         return null;
     }
 
@@ -194,6 +162,7 @@ public class Resolver implements StmtVisitor<Void>, ExprVisitor<Void> {
         for (Expr arg : expression.arguments) {
             resolve(arg);
         }
+        resolveCall(expression);
         return null;
     }
 
@@ -211,23 +180,46 @@ public class Resolver implements StmtVisitor<Void>, ExprVisitor<Void> {
     }
 
     @Override
-    public Void visitThisExpr(ThisExpr expression) {
-        if (currentClass == ClassType.NONE) {
-            Lox.error(expression.keyword, "Cannot use 'this' outside of class.");
+    public Void visitListExpr(ListExpr expression) {
+        for (Expr element : expression.elements) {
+            resolve(element);
         }
+        return null;
+    }
 
-        resolveLocal(expression, expression.keyword);
+    @Override
+    public Void visitMapExpr(MapExpr expression) {
+        for (int i = 0; i < expression.keys.size(); i++) {
+            resolve(expression.keys.get(i));
+            resolve(expression.values.get(i));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(IndexExpr expression) {
+        resolve(expression.object);
+        resolve(expression.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(IndexSetExpr expression) {
+        resolve(expression.object);
+        resolve(expression.index);
+        resolve(expression.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(ThisExpr expression) {
+        resolveThis(expression);
         return null;
     }
 
     @Override
     public Void visitSuperExpr(SuperExpr expression) {
-        if (currentClass == ClassType.NONE) {
-            Lox.error(expression.keyword, "Cannot use 'super' outside of a class.");
-        } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expression.keyword, "Cannot use 'super' in a class with no superclass.");
-        }
-        resolveLocal(expression, expression.keyword);
+        resolveSuper(expression);
         return null;
     }
     //#endregion
@@ -247,75 +239,193 @@ public class Resolver implements StmtVisitor<Void>, ExprVisitor<Void> {
         expr.accept(this);
     }
 
-    private void beginScope() {
-        scopes.push(new HashMap<>());
+    private void resolveFunction(FunctionStmt function, FunctionType fnType) {
+        FunctionType enclosingFunction = beginFunction(fnType);
+        for (var i = 0; i < function.parameters.length; i++) {
+            declare(function.parameters[i], function.parameterLines[i]);
+            define(function.parameters[i], function.parameterLines[i]);
+        }
+        resolve(function.body);
+        assertLocalVariablesUsed();
+        endFunction(enclosingFunction).fillIn(function);
+    }
+    //#endregion
+
+    //#region Parser hooks
+    void beginScope() {
+        scopes.add(new HashMap<>());
     }
 
-    private void endScope() {
-        scopes.pop();
+    void endScope() {
+        scopes.remove(scopes.size() - 1);
     }
 
-    private void declare(Token name) {
-        if (scopes.empty()) return;
-        Map<String, ScopeVariable> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Variable with this name already declared in this scope.");
+    void declare(String name, int line) {
+        if (scopes.isEmpty()) return;
+        Map<String, ScopeVariable> scope = innermost();
+        if (scope.containsKey(name)) {
+            reporter.error(line, name, "Variable with this name already declared in this scope.");
         }
-        scope.put(name.lexeme, new ScopeVariable(name, VariableState.DECLARED));
+        scope.put(name, new ScopeVariable(line, VariableState.DECLARED));
     }
 
-    private void define(Token name) {
+    void define(String name, int line) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, new ScopeVariable(name, VariableState.DEFINED));
+        ScopeVariable variable = innermost().get(name);
+        if (variable != null) {
+            variable.state = VariableState.DEFINED;
+        } else {
+            innermost().put(name, new ScopeVariable(line, VariableState.DEFINED));
+        }
     }
 
-    private void resolveLocal(Expr expression, Token name) {
+    // Number of scopes between the use of a name and its declaration, or Expr.GLOBAL if it isn't declared locally
+    int resolveLocal(String name) {
         for (var i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                scopes.get(i).put(name.lexeme, new ScopeVariable(name, VariableState.ACCESSED));
-                interpreter.resolve(expression, scopes.size() - 1 - i);
-                return;
+            ScopeVariable variable = scopes.get(i).get(name);
+            if (variable != null) {
+                variable.state = VariableState.ACCESSED;
+                return scopes.size() - 1 - i;
             }
         }
+        return Expr.GLOBAL;
     }
 
-    private void resolveFunction(FunctionStmt function, FunctionType fnType) {
+    // Like resolveLocal, and marks every function being resolved that the variable lives outside of.
+    // Those can't run in parallel, their calls would race on the variable
+    int resolveAssignment(String name) {
+        int depth = resolveLocal(name);
+        int scope = depth == Expr.GLOBAL ? -1 : scopes.size() - 1 - depth;
+        for (var i = functions.size() - 1; i >= 0 && functions.get(i).scope > scope; i--) {
+            functions.get(i).assignsOutside = true;
+        }
+        return depth;
+    }
+
+    // Records a call through a variable on every function being resolved that the variable lives outside of,
+    // so a parallel native can check what those functions call as well as what they assign
+    void resolveCall(CallExpr expression) {
+        if (!(expression.callee instanceof VariableExpr)) return;
+        var callee = (VariableExpr) expression.callee;
+        int scope = callee.depth == Expr.GLOBAL ? -1 : scopes.size() - 1 - callee.depth;
+        for (var i = functions.size() - 1; i >= 0 && functions.get(i).scope > scope; i--) {
+            // The closure is the environment of the scope around the parameters
+            functions.get(i).call(callee, scope == -1 ? Expr.GLOBAL : functions.get(i).scope - 1 - scope);
+        }
+    }
+
+    void resolveVariable(VariableExpr expression) {
+        if (!scopes.isEmpty()) {
+            var scopeVariable = innermost().get(expression.name);
+            if (scopeVariable != null)
+                if (scopeVariable.state == VariableState.DECLARED)
+                    reporter.error(expression.line, expression.name, "Cannot read local variable in its own initializer.");
+        }
+
+        expression.depth = resolveLocal(expression.name);
+    }
+
+    void resolveThis(ThisExpr expression) {
+        if (currentClass == ClassType.NONE) {
+            reporter.error(expression.line, "this", "Cannot use 'this' outside of class.");
+        }
+
+        expression.depth = resolveLocal("this");
+    }
+
+    void resolveSuper(SuperExpr expression) {
+        if (currentClass == ClassType.NONE) {
+            reporter.error(expression.line, "super", "Cannot use 'super' outside of a class.");
+        } else if (currentClass != ClassType.SUBCLASS) {
+            reporter.error(expression.line, "super", "Cannot use 'super' in a class with no superclass.");
+        }
+        expression.depth = resolveLocal("super");
+    }
+
+    void checkReturn(int line) {
+        if (currentFunction == FunctionType.NONE) {
+            reporter.error(line, "return", "Cannot return from top-level code.");
+        }
+
+        if (currentFunction == FunctionType.INITIALIZER) {
+            reporter.error(line, "return", "Cannot return from an initializer.");
+        }
+    }
+
+    FunctionType beginFunction(FunctionType fnType) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = fnType;
-
         beginScope();
-        for (Token param : function.parameters) {
-            declare(param);
-            define(param);
+        functions.add(new FunctionScope(scopes.size() - 1));
+        return enclosingFunction;
+    }
+
+    // What was found out about the function, for its statement once that's made
+    FunctionScope endFunction(FunctionType enclosingFunction) {
+        endScope();
+        currentFunction = enclosingFunction;
+        return functions.remove(functions.size() - 1);
+    }
+
+    static FunctionType methodType(String name) {
+        return name.equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+    }
+
+    // Declares the class and opens the scopes its methods are resolved in, returns the enclosing class type
+    ClassType beginClass(String name, int line, VariableExpr superClass) {
+        ClassType enclosingClass = currentClass;
+        currentClass = ClassType.CLASS;
+
+        declare(name, line);
+        define(name, line);
+
+        if (superClass != null && name.equals(superClass.name)) {
+            reporter.error(superClass.line, superClass.name, "A class cannot inherit from itself.");
         }
-        resolve(function.body);
-        assertLocalVariablesUsed();
+
+        if (superClass != null) {
+            currentClass = ClassType.SUBCLASS;
+            resolveVariable(superClass);
+            beginScope();
+            innermost().put("super", new ScopeVariable(0, VariableState.DECLARED));
+        }
+
+        beginScope();
+        innermost().put("this", new ScopeVariable(0, VariableState.DECLARED));
+        return enclosingClass;
+    }
+
+    void endClass(ClassType enclosingClass) {
         endScope();
 
-        currentFunction = enclosingFunction;
+        if (currentClass == ClassType.SUBCLASS) {
+            endScope();
+        }
+
+        currentClass = enclosingClass;
+    }
+
+    void assertLocalVariablesUsed() {
+        for (Map.Entry<String, ScopeVariable> entry : innermost().entrySet()) {
+            if (entry.getValue().state == VariableState.DEFINED) {
+                reporter.error(entry.getValue().line, entry.getKey(), "Unused local variable");
+            }
+        }
     }
 
-    private void assertLocalVariablesUsed() {
-        // TODO: Refactor this, looks nice, but it looks slow
-        scopes
-            .peek()
-            .values()
-            .stream()
-            .filter(variable -> variable.state == VariableState.DEFINED)
-            .forEach(variable ->
-                    Lox.error(variable.declarationToken, "Unused local variable")
-            );
+    private Map<String, ScopeVariable> innermost() {
+        return scopes.get(scopes.size() - 1);
     }
     //#endregion
 
-    private enum FunctionType {
+    enum FunctionType {
         NONE,
         FUNCTION,
         METHOD,
         INITIALIZER
     }
 
-    private enum ClassType {
+    enum ClassType {
         NONE,
         CLASS,
         SUBCLASS
@@ -327,12 +437,38 @@ public class Resolver implements StmtVisitor<Void>, ExprVisitor<Void> {
         ACCESSED
     }
 
+    static final class FunctionScope {
+        // Index of the scope holding the parameters
+        final int scope;
+        boolean assignsOutside = false;
+        final List<VariableExpr> calls = new ArrayList<>();
+
+        FunctionScope(int scope) {
+            this.scope = scope;
+        }
+
+        // Recursive functions call themselves over and over, each callee is only kept once
+        void call(VariableExpr callee, int depth) {
+            for (VariableExpr call : calls) {
+                if (call.depth == depth && call.name.equals(callee.name)) return;
+            }
+            var call = new VariableExpr(callee.name, callee.line);
+            call.depth = depth;
+            calls.add(call);
+        }
+
+        void fillIn(FunctionStmt function) {
+            function.assignsOutside = assignsOutside;
+            if (!calls.isEmpty()) function.calls = calls;
+        }
+    }
+
     static final class ScopeVariable {
-        public final Token declarationToken;
-        public final VariableState state;
+        public final int line;
+        public VariableState state;
 
-        ScopeVariable(Token declarationToken, VariableState state) {
-            this.declarationToken = declarationToken;
+        ScopeVariable(int line, VariableState state) {
+            this.line = line;
             this.state = state;
         }
     }
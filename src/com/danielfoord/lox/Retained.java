@@ -0,0 +1,92 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.functions.LoxFunction;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Measures roughly how many bytes a run still holds, by walking everything it can reach from its
+ * environments, with the same sizes the interpreter charges as it allocates. Only done once those charges
+ * pass the memory limit, so a run that allocates a lot but keeps little only fails when it holds too much.
+ *
+ * Values only held by the Java stack, such as a call's result on its way back, aren't seen. A worker
+ * measures only what its own frames hold, the globals are counted by the run it was forked from.
+ */
+final class Retained {
+
+    private final Map<Object, Boolean> seen = new IdentityHashMap<>();
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+    private long bytes = 0;
+
+    private Retained() {
+    }
+
+    // The environments of the running code and every frame below it, the globals are reached through them
+    // unless they're left out, as they are for a worker
+    static long measure(Environment current, Environment[] frames, int frameCount, Environment leaveOut) {
+        var retained = new Retained();
+        if (leaveOut != null) retained.seen.put(leaveOut, Boolean.TRUE);
+        retained.reach(current);
+        for (int i = 0; i < frameCount; i++) {
+            retained.reach(frames[i]);
+        }
+        while (!retained.pending.isEmpty()) {
+            retained.visit(retained.pending.pop());
+        }
+        return retained.bytes;
+    }
+
+    private void reach(Object value) {
+        if (value == null || value instanceof Double || value instanceof Boolean) return;
+        if (seen.put(value, Boolean.TRUE) == null) pending.push(value);
+    }
+
+    private void visit(Object object) {
+        if (object instanceof String) {
+            bytes += Interpreter.STRING + ((String) object).length();
+        } else if (object instanceof Environment) {
+            Environment environment = (Environment) object;
+            bytes += Interpreter.ENVIRONMENT + Interpreter.BINDING * environment.values().size();
+            reach(environment.enclosing);
+            for (Object value : environment.values().values()) reach(value);
+        } else if (object instanceof LoxFunction) {
+            bytes += Interpreter.FUNCTION;
+            reach(((LoxFunction) object).getClosure());
+        } else if (object instanceof LoxClass) {
+            LoxClass klass = (LoxClass) object;
+            bytes += Interpreter.FUNCTION;
+            reach(klass.superClass);
+            for (LoxFunction method : klass.methods.values()) reach(method);
+        } else if (object instanceof LoxInstance) {
+            LoxInstance instance = (LoxInstance) object;
+            bytes += Interpreter.INSTANCE + Interpreter.FIELD * instance.fields().size();
+            reach(instance.klass());
+            for (Object value : instance.fields().values()) reach(value);
+        } else if (object instanceof LoxList) {
+            LoxList list = (LoxList) object;
+            boolean numbers = list.holdsNumbers();
+            bytes += LoxList.LIST + (long) list.size() * (numbers ? LoxList.NUMBER_SLOT : LoxList.VALUE_SLOT);
+            if (!numbers) {
+                for (int i = 0; i < list.size(); i++) reach(list.get(i));
+            }
+        } else if (object instanceof LoxMap) {
+            LoxMap map = (LoxMap) object;
+            bytes += LoxMap.MAP + (long) map.size() * LoxMap.ENTRY;
+            for (int i = 0; i < map.entryLimit(); i++) {
+                if (!map.isEntry(i)) continue;
+                reach(map.keyAt(i));
+                reach(map.valueAt(i));
+            }
+        } else if (object instanceof Float64Array) {
+            Float64Array array = (Float64Array) object;
+            bytes += Float64Array.ARRAY + (array.isMapped() ? 0 : (long) array.length() * Double.BYTES);
+        } else if (object instanceof Channel) {
+            Channel channel = (Channel) object;
+            bytes += Channel.CHANNEL + (long) channel.capacity() * LoxList.VALUE_SLOT;
+            for (Object value : channel.contents()) reach(value);
+        }
+        // Natives, methods of built in values and tasks are small and hold nothing the script made
+    }
+}
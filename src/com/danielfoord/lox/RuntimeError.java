@@ -2,10 +2,29 @@ package com.danielfoord.lox;
 
 public class RuntimeError extends RuntimeException {
     private static final long serialVersionUID = 1573765504196826664L;
-    final Token token;
+    final int line;
+    private String trace;
 
-    public RuntimeError(Token token, String message) {
-        super(message);
-        this.token = token;
+    public RuntimeError(int line, String message) {
+        // Lox errors are reported with a Lox stack trace, skip filling in the Java one
+        super(message, null, false, false);
+        this.line = line;
     }
-}
\ No newline at end of file
+
+    /**
+     * Records the Lox frames the error was raised in, only the innermost capture is kept.
+     */
+    void captureTrace(CallStack callStack) {
+        if (trace == null) {
+            trace = callStack.trace(line);
+        }
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public String getTrace() {
+        return trace;
+    }
+}
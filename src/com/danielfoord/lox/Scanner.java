@@ -1,5 +1,6 @@
 package com.danielfoord.lox;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -29,14 +30,26 @@ public class Scanner {
         keywords.put("break", TokenType.BREAK);
     }
 
-    private final String source;
+    private final CharSequence source;
+    private final ErrorReporter reporter;
+    private final int end;
     private final List<Token> tokens = new ArrayList<>();
-    private int start = 0;
-    private int current = 0;
-    private int line = 1;
+    private int start;
+    private int current;
+    private int line;
 
-    public Scanner(String source) {
+    public Scanner(CharSequence source, ErrorReporter reporter) {
+        this(source, reporter, 0, source.length(), 1);
+    }
+
+    // Scans only source[start, end), which begins on the given line
+    public Scanner(CharSequence source, ErrorReporter reporter, int start, int end, int line) {
         this.source = source;
+        this.reporter = reporter;
+        this.start = start;
+        this.current = start;
+        this.end = end;
+        this.line = line;
     }
 
     public List<Token> scanTokens() {
@@ -44,10 +57,49 @@ public class Scanner {
             start = current;
             scanToken();
         }
-        tokens.add(new Token(TokenType.EOF, "", null, line));
+        tokens.add(new Token(TokenType.EOF, "", null, line, end));
         return tokens;
     }
 
+    /**
+     * Scans as the Parser asks for tokens instead of all up front, and only keeps the most recent ones,
+     * so the tokens of a very large source never exist all at once. The Parser only looks back one token.
+     */
+    public List<Token> streamTokens() {
+        return new AbstractList<>() {
+            private int dropped = 0;
+
+            @Override
+            public Token get(int index) {
+                if (index < dropped)
+                    throw new IndexOutOfBoundsException("Token " + index + " has already been discarded.");
+
+                while (index - dropped >= tokens.size()) {
+                    if (tokens.size() >= 256) {
+                        int discard = tokens.size() - 2;
+                        tokens.subList(0, discard).clear();
+                        dropped += discard;
+                        continue;
+                    }
+                    if (isAtEnd()) {
+                        if (!tokens.isEmpty() && tokens.get(tokens.size() - 1).type == TokenType.EOF)
+                            return tokens.get(tokens.size() - 1);
+                        tokens.add(new Token(TokenType.EOF, "", null, line, end));
+                    } else {
+                        start = current;
+                        scanToken();
+                    }
+                }
+                return tokens.get(index - dropped);
+            }
+
+            @Override
+            public int size() {
+                return dropped + tokens.size();
+            }
+        };
+    }
+
     public void scanToken() {
         char c = advance();
         switch (c) {
@@ -65,6 +117,15 @@ public class Scanner {
             case '}':
                 addToken(TokenType.RIGHT_BRACE);
                 break;
+            case '[':
+                addToken(TokenType.LEFT_BRACKET);
+                break;
+            case ']':
+                addToken(TokenType.RIGHT_BRACKET);
+                break;
+            case ':':
+                addToken(TokenType.COLON);
+                break;
             case ',':
                 addToken(TokenType.COMMA);
                 break;
@@ -128,7 +189,8 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    current = SourceFile.characterEnd(source, start, end);
+                    reporter.error(line, "Unexpected character.");
                 }
                 break;
         }
@@ -155,12 +217,16 @@ public class Scanner {
 
     private void addToken(TokenType type, Object literal) {
         // Capture the lexeme
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        String text = SourceFile.text(source, start, current);
+        tokens.add(new Token(type, text, literal, line, start));
+    }
+
+    private void addLexeme(TokenType type, String text) {
+        tokens.add(new Token(type, text, null, line, start));
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= end;
     }
 
     private char peek() {
@@ -179,7 +245,7 @@ public class Scanner {
 
         // Unterminated string.
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            reporter.error(line, "Unterminated string.");
             return;
         }
 
@@ -187,7 +253,7 @@ public class Scanner {
         advance();
 
         // Trim the surrounding quotes.
-        String value = source.substring(start + 1, current - 1);
+        String value = SourceFile.text(source, start + 1, current - 1);
         addToken(TokenType.STRING, value);
     }
 
@@ -204,11 +270,11 @@ public class Scanner {
                 advance();
         }
 
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(TokenType.NUMBER, Double.parseDouble(SourceFile.text(source, start, current)));
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length())
+        if (current + 1 >= end)
             return '\0';
         return source.charAt(current + 1);
     }
@@ -218,12 +284,14 @@ public class Scanner {
             advance();
         }
         // See if the identifier is a reserved word.
-        String text = source.substring(start, current);
+        String text = SourceFile.text(source, start, current);
         TokenType type = keywords.get(text);
         if (type == null) {
-            type = TokenType.IDENTIFIER;
+            // Interned so every node naming the same identifier shares one string
+            addLexeme(TokenType.IDENTIFIER, text.intern());
+            return;
         }
-        addToken(type);
+        addLexeme(type, text);
     }
 
     private boolean isAlpha(char c) {
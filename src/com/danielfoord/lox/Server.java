@@ -0,0 +1,315 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.statements.Stmt;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a warm JVM running scripts sent over a Unix domain socket, so short runs skip JVM startup and
+ * run on code the JIT has already compiled. Every request gets its own interpreter, globals and error
+ * reporter, and parsed programs are cached by path and modification time or by source.
+ *
+ * A request is a UTF "run" or "eval", then a length prefixed UTF-8 path or source, then a count of
+ * length prefixed options such as --fused or --timeout=[ms]. The reply is a sequence of frames, a byte
+ * naming the stream, 1 for out and 2 for err, then a length prefixed chunk, ending with a 0 byte and the
+ * exit code as an int.
+ */
+final class Server {
+
+    static final String SOCKET = "jlox.sock";
+
+    private static final byte EXIT = 0;
+    private static final byte OUT = 1;
+    private static final byte ERR = 2;
+    private static final int CACHED_PROGRAMS = 256;
+
+    private final Path socket;
+    private final byte[] snapshot;
+    private final long fuelLimit;
+    private final long timeLimit;
+    private final long memoryLimit;
+    private final ExecutorService workers;
+    // Fresh globals made ahead of time, restoring a large snapshot costs more than running a small script
+    private final BlockingQueue<Environment> warmGlobals;
+    private final Map<String, List<Stmt>> programs = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<Stmt>> eldest) {
+            return size() > CACHED_PROGRAMS;
+        }
+    };
+
+    Server(Path socket, byte[] snapshot, int workers, long fuelLimit, long timeLimit, long memoryLimit) {
+        this.socket = socket;
+        this.snapshot = snapshot;
+        this.fuelLimit = fuelLimit;
+        this.timeLimit = timeLimit;
+        this.memoryLimit = memoryLimit;
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "jlox-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.warmGlobals = new ArrayBlockingQueue<>(workers);
+    }
+
+    void serve() throws IOException {
+        Thread refill = new Thread(this::refillGlobals, "jlox-globals");
+        refill.setDaemon(true);
+        refill.start();
+
+        Files.deleteIfExists(socket);
+        try (ServerSocketChannel server = UnixSockets.openServer(socket)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException ignored) {
+                }
+            }));
+            System.out.println("Serving on " + socket);
+
+            for (; ; ) {
+                SocketChannel client = server.accept();
+                workers.execute(() -> handle(client));
+            }
+        }
+    }
+
+    private void refillGlobals() {
+        for (; ; ) {
+            try {
+                warmGlobals.put(newGlobals());
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Unable to restore snapshot: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private Environment newGlobals() throws IOException {
+        return snapshot == null ? Interpreter.newGlobals() : Snapshot.read(snapshot);
+    }
+
+    private void handle(SocketChannel client) {
+        try (client) {
+            DataInputStream request = new DataInputStream(Channels.newInputStream(client));
+            DataOutputStream reply = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+
+            String kind = request.readUTF();
+            String payload = readString(request);
+            List<String> options = new ArrayList<>();
+            for (int i = request.readInt(); i > 0; i--) {
+                options.add(readString(request));
+            }
+
+            PrintStream out = new PrintStream(new BufferedOutputStream(new FrameOutputStream(reply, OUT)), false, StandardCharsets.UTF_8);
+            PrintStream err = new PrintStream(new FrameOutputStream(reply, ERR), true, StandardCharsets.UTF_8);
+            int exitCode;
+            try {
+                exitCode = run(kind, payload, options, out, err);
+            } catch (IOException | RuntimeException | StackOverflowError e) {
+                err.println("Error: " + e);
+                exitCode = 70;
+            }
+            out.flush();
+            err.flush();
+
+            synchronized (reply) {
+                reply.writeByte(EXIT);
+                reply.writeInt(exitCode);
+                reply.flush();
+            }
+        } catch (IOException e) {
+            // The client went away, there's nobody left to tell
+        }
+    }
+
+    private int run(String kind, String payload, List<String> options, PrintStream out, PrintStream err) throws IOException {
+        ErrorReporter reporter = new ErrorReporter(err);
+        boolean fused = options.contains("--fused");
+
+        String key;
+        Path path = null;
+        if (kind.equals("run")) {
+            path = Paths.get(payload);
+            if (!Files.isRegularFile(path)) {
+                err.println("No such file '" + payload + "'.");
+                return 66;
+            }
+            key = "run:" + fused + ":" + path.toAbsolutePath() + ":" + Files.getLastModifiedTime(path).toMillis() + ":" + Files.size(path);
+        } else if (kind.equals("eval")) {
+            key = "eval:" + fused + ":" + payload;
+        } else {
+            err.println("Unknown request '" + kind + "'.");
+            return 64;
+        }
+
+        // Depths are stored on the nodes and call sites check whose globals they cached, so programs can be shared
+        List<Stmt> statements = cached(key);
+        if (statements == null) {
+            statements = FrontEnd.parse(path != null ? SourceFile.read(path) : payload, reporter, fused);
+            if (statements == null)
+                return 65;
+            // Programs with resolution errors still run, like they do from the command line, but aren't kept
+            if (!reporter.hadError) {
+                synchronized (programs) {
+                    programs.put(key, statements);
+                }
+            }
+        }
+
+        Environment globals = warmGlobals.poll();
+        Interpreter interpreter = new Interpreter(globals != null ? globals : newGlobals(),
+                reporter, OutputSink.of(out), new BufferedReader(Reader.nullReader()));
+        // A request can ask for tighter limits than the server's, never looser ones
+        interpreter.limitFuel(Math.min(fuelLimit, limit(options, "--fuel=", 1)));
+        interpreter.limitTime(Math.min(timeLimit, limit(options, "--timeout=", TimeUnit.MILLISECONDS.toNanos(1))));
+        interpreter.limitMemory(Math.min(memoryLimit, limit(options, "--memory=", 1 << 20)));
+        interpreter.interpret(statements);
+        return reporter.hadError ? 65 : reporter.hadRuntimeError ? 70 : 0;
+    }
+
+    private static long limit(List<String> options, String prefix, long scale) {
+        for (String option : options) {
+            if (option.startsWith(prefix)) return Long.parseLong(option.substring(prefix.length())) * scale;
+        }
+        return Interpreter.NO_LIMIT;
+    }
+
+    private List<Stmt> cached(String key) {
+        synchronized (programs) {
+            return programs.get(key);
+        }
+    }
+
+    //#region Client
+    static int send(Path socket, String kind, String payload, List<String> options) throws IOException {
+        try (SocketChannel channel = UnixSockets.connect(socket)) {
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeUTF(kind);
+            writeString(request, payload);
+            request.writeInt(options.size());
+            for (String option : options) writeString(request, option);
+            request.flush();
+
+            DataInputStream reply = new DataInputStream(Channels.newInputStream(channel));
+            for (; ; ) {
+                byte stream = reply.readByte();
+                if (stream == EXIT) {
+                    System.out.flush();
+                    return reply.readInt();
+                }
+                byte[] chunk = new byte[reply.readInt()];
+                reply.readFully(chunk);
+                (stream == OUT ? System.out : System.err).write(chunk);
+            }
+        }
+    }
+    //#endregion
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    // Writes everything as frames of one stream, out and err share the reply so frames are written whole
+    private static final class FrameOutputStream extends OutputStream {
+        private final DataOutputStream reply;
+        private final byte stream;
+
+        FrameOutputStream(DataOutputStream reply, byte stream) {
+            this.reply = reply;
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) return;
+            synchronized (reply) {
+                reply.writeByte(stream);
+                reply.writeInt(length);
+                reply.write(bytes, offset, length);
+                reply.flush();
+            }
+        }
+    }
+
+    /**
+     * Unix domain socket channels arrived in Java 16, after the language level this project builds for,
+     * so they're opened reflectively and fail with a clear message on older runtimes.
+     */
+    private static final class UnixSockets {
+
+        static ServerSocketChannel openServer(Path path) throws IOException {
+            ServerSocketChannel channel = (ServerSocketChannel) open(ServerSocketChannel.class);
+            channel.bind(address(path));
+            return channel;
+        }
+
+        static SocketChannel connect(Path path) throws IOException {
+            SocketChannel channel = (SocketChannel) open(SocketChannel.class);
+            channel.connect(address(path));
+            return channel;
+        }
+
+        private static Object open(Class<?> type) throws IOException {
+            try {
+                ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+                return type.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+            } catch (IllegalArgumentException | NoSuchMethodException | IllegalAccessException e) {
+                throw new IOException("Unix domain sockets need Java 16 or newer.", e);
+            } catch (InvocationTargetException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        private static SocketAddress address(Path path) throws IOException {
+            try {
+                return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                        .getMethod("of", Path.class).invoke(null, path);
+            } catch (ReflectiveOperationException e) {
+                throw new IOException("Unix domain sockets need Java 16 or newer.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.functions.LoxFunction;
+import com.danielfoord.lox.globals.GlobalCallable;
+import com.danielfoord.lox.statements.FunctionStmt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves the globals left behind by a prelude and brings them back on later runs, so the classes,
+ * functions and tables the prelude builds don't have to be built again.
+ *
+ * The image is a flat table of every environment, function, class, instance, list and map reachable from the
+ * globals, with references written as table indices. Objects are ordered so that whatever a constructor needs
+ * comes first, and the bindings, fields and elements, which can point anywhere, follow in a second section. Both directions
+ * work through the table in a loop, so a long chain of instances can't overflow the stack the way Java
+ * serialization would. Function declarations and natives, whose depth is bounded by the source,
+ * go into one serialized block up front.
+ */
+final class Snapshot {
+
+    private static final String MAGIC = "jlox-snapshot-1";
+
+    // Value tags
+    private static final byte NIL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte NUMBER = 3;
+    private static final byte STRING = 4;
+    private static final byte OBJECT = 5;
+
+    // Table entry kinds
+    private static final byte ENVIRONMENT = 0;
+    private static final byte FUNCTION = 1;
+    private static final byte CLASS = 2;
+    private static final byte INSTANCE = 3;
+    private static final byte SERIALIZED = 4;
+    private static final byte LIST = 5;
+    private static final byte MAP = 6;
+
+    private static final int NONE = -1;
+
+    private Snapshot() {
+    }
+
+    //#region Writing
+    static void write(Environment globals, Path path) throws IOException {
+        List<Object> found = new ArrayList<>();
+        Map<Object, Boolean> seen = new IdentityHashMap<>();
+        find(globals, seen, found);
+
+        // The list grows as references are found
+        for (int i = 0; i < found.size(); i++) {
+            Object object = found.get(i);
+            if (object instanceof Environment) {
+                for (Object value : ((Environment) object).values().values()) find(value, seen, found);
+            } else if (object instanceof LoxInstance) {
+                for (Object value : ((LoxInstance) object).fields().values()) find(value, seen, found);
+            } else if (object instanceof LoxList) {
+                LoxList list = (LoxList) object;
+                for (int j = 0; j < list.size(); j++) find(list.get(j), seen, found);
+            } else if (object instanceof LoxMap) {
+                LoxMap map = (LoxMap) object;
+                for (int j = 0; j < map.entryLimit(); j++) {
+                    if (!map.isEntry(j)) continue;
+                    find(map.keyAt(j), seen, found);
+                    find(map.valueAt(j), seen, found);
+                }
+            }
+            for (Object dependency : dependencies(object)) find(dependency, seen, found);
+        }
+
+        // The globals have nothing to depend on, so they always come out first
+        Map<Object, Integer> ids = new IdentityHashMap<>();
+        List<Object> table = new ArrayList<>(found.size());
+        for (Object object : found) order(object, ids, table);
+
+        List<Object> serialized = new ArrayList<>();
+        Map<String, Integer> names = new HashMap<>();
+        List<String> nameTable = new ArrayList<>();
+        for (Object object : table) {
+            if (object instanceof FunctionStmt || object instanceof GlobalCallable) {
+                serialized.add(object);
+            } else if (object instanceof Environment) {
+                for (String name : ((Environment) object).values().keySet()) nameOf(name, names, nameTable);
+            } else if (object instanceof LoxInstance) {
+                for (String name : ((LoxInstance) object).fields().keySet()) nameOf(name, names, nameTable);
+            } else if (object instanceof LoxClass) {
+                for (String name : ((LoxClass) object).methods.keySet()) nameOf(name, names, nameTable);
+            }
+        }
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            output.writeUTF(MAGIC);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+                objects.writeObject(serialized.toArray());
+            }
+            output.writeInt(bytes.size());
+            bytes.writeTo(output);
+
+            output.writeInt(nameTable.size());
+            for (String name : nameTable) writeString(name, output);
+
+            output.writeInt(table.size());
+            for (Object object : table) {
+                if (object instanceof Environment) {
+                    output.writeByte(ENVIRONMENT);
+                    output.writeInt(idOf(((Environment) object).enclosing, ids));
+                } else if (object instanceof LoxFunction) {
+                    LoxFunction function = (LoxFunction) object;
+                    output.writeByte(FUNCTION);
+                    output.writeInt(idOf(function.getDeclaration(), ids));
+                    output.writeInt(idOf(function.getClosure(), ids));
+                    output.writeBoolean(function.isInitializer());
+                } else if (object instanceof LoxClass) {
+                    LoxClass klass = (LoxClass) object;
+                    output.writeByte(CLASS);
+                    writeString(klass.name, output);
+                    output.writeInt(idOf(klass.superClass, ids));
+                    output.writeInt(klass.methods.size());
+                    for (Map.Entry<String, LoxFunction> method : klass.methods.entrySet()) {
+                        output.writeInt(names.get(method.getKey()));
+                        output.writeInt(idOf(method.getValue(), ids));
+                    }
+                } else if (object instanceof LoxInstance) {
+                    output.writeByte(INSTANCE);
+                    output.writeInt(idOf(((LoxInstance) object).klass(), ids));
+                } else if (object instanceof LoxList) {
+                    output.writeByte(LIST);
+                } else if (object instanceof LoxMap) {
+                    output.writeByte(MAP);
+                } else {
+                    output.writeByte(SERIALIZED);
+                }
+            }
+
+            // Bindings, fields and elements, in table order
+            for (Object object : table) {
+                if (object instanceof Environment) {
+                    writeBindings(((Environment) object).values(), names, ids, output);
+                } else if (object instanceof LoxInstance) {
+                    writeBindings(((LoxInstance) object).fields(), names, ids, output);
+                } else if (object instanceof LoxList) {
+                    LoxList list = (LoxList) object;
+                    output.writeInt(list.size());
+                    for (int i = 0; i < list.size(); i++) writeValue(list.get(i), ids, output);
+                } else if (object instanceof LoxMap) {
+                    LoxMap map = (LoxMap) object;
+                    output.writeInt(map.size());
+                    for (int i = 0; i < map.entryLimit(); i++) {
+                        if (!map.isEntry(i)) continue;
+                        writeValue(map.keyAt(i), ids, output);
+                        writeValue(map.valueAt(i), ids, output);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void find(Object object, Map<Object, Boolean> seen, List<Object> found) throws IOException {
+        if (object == null || object == Environment.NIL || object instanceof Boolean || object instanceof Double || object instanceof String)
+            return;
+        if (seen.containsKey(object))
+            return;
+
+        if (object instanceof GlobalCallable && !(object instanceof Serializable))
+            throw new IOException("Can't snapshot native '" + ((GlobalCallable) object).getName() + "'.");
+        if (!(object instanceof Environment || object instanceof LoxFunction || object instanceof LoxClass
+                || object instanceof LoxInstance || object instanceof LoxList || object instanceof LoxMap || object instanceof FunctionStmt
+                || object instanceof GlobalCallable))
+            throw new IOException("Can't snapshot a value of type " + object.getClass().getSimpleName() + ".");
+
+        seen.put(object, true);
+        found.add(object);
+    }
+
+    // What the object's constructor needs, this only nests as deep as the source does
+    private static List<Object> dependencies(Object object) {
+        List<Object> dependencies = new ArrayList<>();
+        if (object instanceof Environment) {
+            dependencies.add(((Environment) object).enclosing);
+        } else if (object instanceof LoxFunction) {
+            dependencies.add(((LoxFunction) object).getDeclaration());
+            dependencies.add(((LoxFunction) object).getClosure());
+        } else if (object instanceof LoxClass) {
+            dependencies.add(((LoxClass) object).superClass);
+            dependencies.addAll(((LoxClass) object).methods.values());
+        } else if (object instanceof LoxInstance) {
+            dependencies.add(((LoxInstance) object).klass());
+        }
+        return dependencies;
+    }
+
+    private static void order(Object object, Map<Object, Integer> ids, List<Object> table) {
+        if (object == null || ids.containsKey(object))
+            return;
+        for (Object dependency : dependencies(object)) order(dependency, ids, table);
+        ids.put(object, table.size());
+        table.add(object);
+    }
+
+    private static void nameOf(String name, Map<String, Integer> names, List<String> nameTable) {
+        if (names.putIfAbsent(name, nameTable.size()) == null) nameTable.add(name);
+    }
+
+    private static int idOf(Object object, Map<Object, Integer> ids) {
+        return object == null ? NONE : ids.get(object);
+    }
+
+    private static void writeBindings(Map<String, Object> bindings, Map<String, Integer> names,
+                                      Map<Object, Integer> ids, DataOutputStream output) throws IOException {
+        output.writeInt(bindings.size());
+        for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+            output.writeInt(names.get(binding.getKey()));
+            writeValue(binding.getValue(), ids, output);
+        }
+    }
+
+    private static void writeValue(Object value, Map<Object, Integer> ids, DataOutputStream output) throws IOException {
+        if (value == null || value == Environment.NIL) {
+            output.writeByte(NIL);
+        } else if (value instanceof Boolean) {
+            output.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            output.writeByte(NUMBER);
+            output.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            output.writeByte(STRING);
+            writeString((String) value, output);
+        } else {
+            output.writeByte(OBJECT);
+            output.writeInt(ids.get(value));
+        }
+    }
+
+    // writeUTF is limited to 64KB, Lox strings are not
+    private static void writeString(String value, DataOutputStream output) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+    //#endregion
+
+    //#region Reading
+    static Environment read(Path path) throws IOException {
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(path))) {
+            return read(input, path.toString());
+        }
+    }
+
+    // For images kept in memory, such as by the server which restores the same one for every request
+    static Environment read(byte[] image) throws IOException {
+        return read(new ByteArrayInputStream(image), "Image");
+    }
+
+    private static Environment read(InputStream stream, String path) throws IOException {
+        DataInputStream input = new DataInputStream(stream);
+        try {
+            if (!MAGIC.equals(input.readUTF()))
+                throw new IOException(path + " is not a jlox snapshot.");
+
+            byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            Object[] serialized = (Object[]) new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+
+            String[] names = new String[input.readInt()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = readString(input);
+            }
+
+            // Everything an object's constructor needs comes before it
+            Object[] objects = new Object[input.readInt()];
+            int nextSerialized = 0;
+            for (int i = 0; i < objects.length; i++) {
+                byte kind = input.readByte();
+                switch (kind) {
+                    case ENVIRONMENT -> {
+                        Environment enclosing = (Environment) reference(input.readInt(), objects);
+                        objects[i] = enclosing == null ? new Environment() : new Environment(enclosing);
+                    }
+                    case FUNCTION -> objects[i] = new LoxFunction(
+                            (FunctionStmt) reference(input.readInt(), objects),
+                            (Environment) reference(input.readInt(), objects),
+                            input.readBoolean());
+                    case CLASS -> {
+                        String name = readString(input);
+                        LoxClass superClass = (LoxClass) reference(input.readInt(), objects);
+                        int count = input.readInt();
+                        Map<String, LoxFunction> methods = new HashMap<>();
+                        for (int j = 0; j < count; j++) {
+                            methods.put(names[input.readInt()], (LoxFunction) reference(input.readInt(), objects));
+                        }
+                        objects[i] = new LoxClass(name, superClass, methods);
+                    }
+                    case INSTANCE -> objects[i] = new LoxInstance((LoxClass) reference(input.readInt(), objects));
+                    case LIST -> objects[i] = new LoxList();
+                    case MAP -> objects[i] = new LoxMap();
+                    case SERIALIZED -> objects[i] = serialized[nextSerialized++];
+                    default -> throw new IOException(path + " has an unknown entry " + kind + ".");
+                }
+            }
+
+            for (Object object : objects) {
+                if (object instanceof Environment) {
+                    Environment environment = (Environment) object;
+                    int count = input.readInt();
+                    for (int j = 0; j < count; j++) {
+                        environment.define(names[input.readInt()], readValue(input, objects));
+                    }
+                } else if (object instanceof LoxInstance) {
+                    LoxInstance instance = (LoxInstance) object;
+                    int count = input.readInt();
+                    for (int j = 0; j < count; j++) {
+                        instance.set(names[input.readInt()], readValue(input, objects));
+                    }
+                } else if (object instanceof LoxList) {
+                    LoxList list = (LoxList) object;
+                    int count = input.readInt();
+                    for (int j = 0; j < count; j++) {
+                        list.add(readValue(input, objects));
+                    }
+                } else if (object instanceof LoxMap) {
+                    LoxMap map = (LoxMap) object;
+                    int count = input.readInt();
+                    for (int j = 0; j < count; j++) {
+                        map.put(readValue(input, objects), readValue(input, objects));
+                    }
+                }
+            }
+            return (Environment) objects[0];
+        } catch (EOFException | StreamCorruptedException | ClassNotFoundException | ClassCastException
+                | ArrayIndexOutOfBoundsException e) {
+            throw new IOException(path + " is not a jlox snapshot.", e);
+        }
+    }
+
+    private static Object reference(int id, Object[] objects) {
+        return id == NONE ? null : objects[id];
+    }
+
+    private static Object readValue(DataInputStream input, Object[] objects) throws IOException {
+        byte tag = input.readByte();
+        return switch (tag) {
+            case NIL -> null;
+            case FALSE -> false;
+            case TRUE -> true;
+            case NUMBER -> input.readDouble();
+            case STRING -> readString(input);
+            case OBJECT -> objects[input.readInt()];
+            default -> throw new IOException("Unknown snapshot value " + tag + ".");
+        };
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    //#endregion
+}
@@ -0,0 +1,91 @@
+package com.danielfoord.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Loads Lox sources for the Scanner.
+ * UTF-8 and ASCII files are memory mapped and scanned in place, so a large script is never copied onto the heap as a whole.
+ * Only the lexemes the Scanner keeps are decoded, which works because everything outside string literals and
+ * comments is ASCII and no byte of a multi-byte UTF-8 character can be mistaken for an ASCII one.
+ * Other charsets are decoded up front as before.
+ */
+final class SourceFile {
+
+    private SourceFile() {
+    }
+
+    static CharSequence read(Path path) throws IOException {
+        Charset charset = Charset.defaultCharset();
+        if (!charset.equals(StandardCharsets.UTF_8) && !charset.equals(StandardCharsets.US_ASCII))
+            return new String(Files.readAllBytes(path), charset);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(path + " is too large to load (" + size + " bytes).");
+            // The mapping stays valid after the channel is closed
+            return new MappedSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), charset);
+        }
+    }
+
+    // The text of source[start, end), decoded straight from the bytes of a mapped source
+    static String text(CharSequence source, int start, int end) {
+        if (source instanceof MappedSource)
+            return ((MappedSource) source).text(start, end);
+        return source.subSequence(start, end).toString();
+    }
+
+    // Where the character starting at index ends. In a mapped source that's after its UTF-8 continuation
+    // bytes, so a character outside a string literal is reported once rather than once per byte
+    static int characterEnd(CharSequence source, int index, int end) {
+        int next = index + 1;
+        if (source instanceof MappedSource && source.charAt(index) >= 0xC0) {
+            while (next < end && (source.charAt(next) & 0xC0) == 0x80) next++;
+        }
+        return next;
+    }
+
+    // Characters are the raw bytes, bytes of multi-byte characters come out as chars above 0x7F that match no token
+    private static final class MappedSource implements CharSequence {
+        private final ByteBuffer bytes;
+        private final Charset charset;
+
+        MappedSource(ByteBuffer bytes, Charset charset) {
+            this.bytes = bytes;
+            this.charset = charset;
+        }
+
+        @Override
+        public int length() {
+            return bytes.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes.get(index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new MappedSource(bytes.slice(start, end - start), charset);
+        }
+
+        String text(int start, int end) {
+            byte[] copy = new byte[end - start];
+            bytes.get(start, copy);
+            return new String(copy, charset);
+        }
+
+        @Override
+        public String toString() {
+            return text(0, bytes.limit());
+        }
+    }
+}
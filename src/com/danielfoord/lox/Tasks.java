@@ -0,0 +1,74 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.globals.LoxNative;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Natives for concurrent scripts. spawn runs a function of no arguments on another thread and returns a
+ * task to join, channel makes a bounded channel for tasks to pass values over.
+ *
+ * Tasks run on virtual threads where the JVM has them, so thousands of tasks blocked on files or channels
+ * cost little, and on daemon platform threads otherwise. Like the callbacks of the parallel natives, a
+ * spawned function may not assign to variables declared outside it; tasks share the globals, which should
+ * be set up before tasks that use them are spawned.
+ */
+public final class Tasks {
+
+    // Thread.ofVirtual().start(runnable) on JVMs with virtual threads, found at run time since the
+    // sources target an older Java
+    private static final MethodHandle START_VIRTUAL = findVirtualThreads();
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private Tasks() {
+    }
+
+    @LoxNative
+    public static LoxTask spawn(Interpreter interpreter, Object function) {
+        var task = new LoxTask(interpreter.fork(), Parallel.callback(interpreter, function, 0, "spawn"));
+        start(task::run);
+        return task;
+    }
+
+    @LoxNative
+    public static Channel channel(Interpreter interpreter, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Channel capacity must be at least 1.");
+        interpreter.reserve(Channel.CHANNEL + (long) capacity * LoxList.VALUE_SLOT);
+        return new Channel(capacity);
+    }
+
+    private static void start(Runnable work) {
+        if (START_VIRTUAL != null) {
+            try {
+                START_VIRTUAL.invokeExact(work);
+                return;
+            } catch (Throwable ignored) {
+                // Fall through to a platform thread
+            }
+        }
+        Thread thread = new Thread(work, "jlox-task-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static MethodHandle findVirtualThreads() {
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Class<?> ofVirtualBuilder = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            var lookup = MethodHandles.publicLookup();
+            MethodHandle ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(ofVirtualBuilder));
+            MethodHandle start = lookup.findVirtual(builder, "start", MethodType.methodType(Thread.class, Runnable.class));
+            MethodHandle startVirtual = MethodHandles.collectArguments(start, 0, ofVirtual)
+                    .asType(MethodType.methodType(void.class, Runnable.class));
+            // Where virtual threads are still a preview they fail until enabled, so start one first
+            startVirtual.invokeExact((Runnable) () -> { });
+            return startVirtual;
+        } catch (Throwable unavailable) {
+            return null;
+        }
+    }
+}
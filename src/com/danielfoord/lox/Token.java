@@ -7,12 +7,14 @@ public class Token implements Serializable {
     public final String lexeme;
     public final Object literal;
     public final int line;
+    public final int offset; // Index of the first character in the source
 
-    Token(TokenType type, String lexeme, Object literal, int line) {
+    Token(TokenType type, String lexeme, Object literal, int line, int offset) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.offset = offset;
     }
 
     public String toString() {
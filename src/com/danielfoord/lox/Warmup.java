@@ -0,0 +1,119 @@
+package com.danielfoord.lox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/**
+ * Builds an AppCDS archive so short lived jlox processes skip most class loading and linking.
+ * The JVM only archives classes that come from jars, so class directories on the class path are packed
+ * into a jar first. The archive is dumped by a child JVM that trains on the test corpus and
+ * only matches that jar, which is why bin/jlox runs from the jar whenever the archive is present.
+ */
+final class Warmup {
+
+    static final String ARCHIVE = "jlox.jsa";
+    static final String JAR = "jlox.jar";
+
+    private Warmup() {
+    }
+
+    static Path defaultCache() {
+        String cache = System.getenv("JLOX_CACHE");
+        return cache != null ? Paths.get(cache) : Paths.get(System.getProperty("user.home"), ".jlox");
+    }
+
+    static void createArchive(Path cache, Path corpus) throws IOException, InterruptedException {
+        Files.createDirectories(cache);
+        Path jar = cache.resolve(JAR);
+        Path archive = cache.resolve(ARCHIVE);
+        packClassPath(jar);
+        Files.deleteIfExists(archive);
+
+        String java = ProcessHandle.current().info().command()
+                .orElse(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        Process process = new ProcessBuilder(java,
+                "-XX:ArchiveClassesAtExit=" + archive,
+                "-cp", jar.toString(),
+                Lox.class.getName(), "train", corpus.toString())
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        process.getOutputStream().close();
+
+        if (process.waitFor() != 0 || !Files.exists(archive))
+            throw new IOException("Training run exited with " + process.exitValue() + " and did not write " + archive);
+    }
+
+    // Everything on the class path goes into one jar, so the archive does not depend on where it was built from
+    private static void packClassPath(Path jar) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, Lox.class.getName());
+
+        Path temporary = jar.resolveSibling(JAR + ".tmp");
+        try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(temporary), manifest)) {
+            for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                Path root = Paths.get(entry);
+                if (Files.isDirectory(root)) {
+                    packDirectory(root, output);
+                } else if (Files.isRegularFile(root) && !root.toAbsolutePath().equals(jar.toAbsolutePath())) {
+                    packJar(root, output);
+                }
+            }
+        }
+        Files.move(temporary, jar, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void packDirectory(Path root, JarOutputStream output) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.filter(Files::isRegularFile).forEach(files::add);
+        }
+        for (Path file : files) {
+            String name = root.relativize(file).toString().replace(File.separatorChar, '/');
+            if (name.equals("META-INF/MANIFEST.MF")) continue;
+            output.putNextEntry(new JarEntry(name));
+            Files.copy(file, output);
+            output.closeEntry();
+        }
+    }
+
+    private static void packJar(Path source, JarOutputStream output) throws IOException {
+        try (JarFile jar = new JarFile(source.toFile())) {
+            for (JarEntry entry : Collections.list(jar.entries())) {
+                if (entry.isDirectory() || entry.getName().equals("META-INF/MANIFEST.MF")) continue;
+                output.putNextEntry(new JarEntry(entry.getName()));
+                try (InputStream input = jar.getInputStream(entry)) {
+                    input.transferTo(output);
+                }
+                output.closeEntry();
+            }
+        }
+    }
+
+    // The training workload, every script in the corpus except the slow benchmarks
+    static List<Path> trainingScripts(Path corpus) throws IOException {
+        List<Path> scripts = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(corpus)) {
+            walk.filter(path -> path.toString().endsWith(".lox"))
+                    .filter(path -> !corpus.relativize(path).startsWith("benchmark"))
+                    .sorted()
+                    .forEach(scripts::add);
+        }
+        return scripts;
+    }
+}
@@ -1,14 +1,14 @@
 package com.danielfoord.lox.expressions;
 
-import com.danielfoord.lox.Token;
-
 public class AssignExpr extends Expr {
-
-    public final Token name;
+    public final String name;
+    public final int line;
     public final Expr value;
+    public int depth = GLOBAL; // Filled in by the resolver
 
-    public AssignExpr(Token name, Expr value) {
+    public AssignExpr(String name, int line, Expr value) {
         this.name = name;
+        this.line = line;
         this.value = value;
     }
 
@@ -16,4 +16,4 @@ public class AssignExpr extends Expr {
     public <R> R accept(ExprVisitor<R> visitor) {
         return visitor.visitAssignExpr(this);
     }
-}
\ No newline at end of file
+}
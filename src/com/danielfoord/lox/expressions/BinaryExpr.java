@@ -1,15 +1,17 @@
 package com.danielfoord.lox.expressions;
 
-import com.danielfoord.lox.Token;
+import com.danielfoord.lox.TokenType;
 
 public class BinaryExpr extends Expr {
     public final Expr left;
-    public final Token operator;
+    public final TokenType operator;
+    public final int line;
     public final Expr right;
 
-    public BinaryExpr(Expr left, Token operator, Expr right) {
+    public BinaryExpr(Expr left, TokenType operator, int line, Expr right) {
         this.left = left;
         this.operator = operator;
+        this.line = line;
         this.right = right;
     }
 
@@ -1,17 +1,18 @@
 package com.danielfoord.lox.expressions;
 
-import com.danielfoord.lox.Token;
+import com.danielfoord.lox.functions.CallSite;
 
 import java.util.List;
 
 public class CallExpr extends Expr {
     public final Expr callee;
-    public final Token paren; // Used for error reporting
+    public final int line; // Line of the closing paren, used for error reporting
     public final List<Expr> arguments;
+    public transient CallSite cache; // Filled in by the interpreter
 
-    public CallExpr(Expr callee, Token paren, List<Expr> arguments) {
+    public CallExpr(Expr callee, int line, List<Expr> arguments) {
         this.callee = callee;
-        this.paren = paren;
+        this.line = line;
         this.arguments = arguments;
     }
 
@@ -17,5 +17,8 @@ package com.danielfoord.lox.expressions;
 import java.io.Serializable;
 
 public abstract class Expr implements Serializable {
+    // Resolved depth of a variable that lives in the global environment
+    public static final int GLOBAL = -1;
+
     public abstract <R> R accept(ExprVisitor<R> visitor);
 }
\ No newline at end of file
@@ -24,4 +24,12 @@ public interface ExprVisitor<R> {
     R visitThisExpr(ThisExpr expression);
 
     R visitSuperExpr(SuperExpr expression);
+
+    R visitListExpr(ListExpr expression);
+
+    R visitIndexExpr(IndexExpr expression);
+
+    R visitIndexSetExpr(IndexSetExpr expression);
+
+    R visitMapExpr(MapExpr expression);
 }
\ No newline at end of file
@@ -1,15 +1,14 @@
 package com.danielfoord.lox.expressions;
 
-import com.danielfoord.lox.Token;
-
 public class GetExpr extends Expr {
-
     public final Expr object;
-    public final Token name;
+    public final String name;
+    public final int line;
 
-    public GetExpr(Expr object, Token name) {
+    public GetExpr(Expr object, String name, int line) {
         this.object = object;
         this.name = name;
+        this.line = line;
     }
 
     @Override
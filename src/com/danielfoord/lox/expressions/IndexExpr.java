@@ -0,0 +1,18 @@
+package com.danielfoord.lox.expressions;
+
+public class IndexExpr extends Expr {
+    public final Expr object;
+    public final Expr index;
+    public final int line;
+
+    public IndexExpr(Expr object, Expr index, int line) {
+        this.object = object;
+        this.index = index;
+        this.line = line;
+    }
+
+    @Override
+    public <R> R accept(ExprVisitor<R> visitor) {
+        return visitor.visitIndexExpr(this);
+    }
+}
@@ -0,0 +1,20 @@
+package com.danielfoord.lox.expressions;
+
+public class IndexSetExpr extends Expr {
+    public final Expr object;
+    public final Expr index;
+    public final int line;
+    public final Expr value;
+
+    public IndexSetExpr(Expr object, Expr index, int line, Expr value) {
+        this.object = object;
+        this.index = index;
+        this.line = line;
+        this.value = value;
+    }
+
+    @Override
+    public <R> R accept(ExprVisitor<R> visitor) {
+        return visitor.visitIndexSetExpr(this);
+    }
+}
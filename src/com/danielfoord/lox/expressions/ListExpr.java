@@ -0,0 +1,18 @@
+package com.danielfoord.lox.expressions;
+
+import java.util.List;
+
+public class ListExpr extends Expr {
+    public final List<Expr> elements;
+    public final int line;
+
+    public ListExpr(List<Expr> elements, int line) {
+        this.elements = elements;
+        this.line = line;
+    }
+
+    @Override
+    public <R> R accept(ExprVisitor<R> visitor) {
+        return visitor.visitListExpr(this);
+    }
+}
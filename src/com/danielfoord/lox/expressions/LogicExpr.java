@@ -1,13 +1,13 @@
 package com.danielfoord.lox.expressions;
 
-import com.danielfoord.lox.Token;
+import com.danielfoord.lox.TokenType;
 
 public class LogicExpr extends Expr {
     public final Expr left;
-    public final Token operator;
+    public final TokenType operator;
     public final Expr right;
 
-    public LogicExpr(Expr left, Token operator, Expr right) {
+    public LogicExpr(Expr left, TokenType operator, Expr right) {
         this.left = left;
         this.operator = operator;
         this.right = right;
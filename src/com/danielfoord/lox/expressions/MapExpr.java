@@ -0,0 +1,20 @@
+package com.danielfoord.lox.expressions;
+
+import java.util.List;
+
+public class MapExpr extends Expr {
+    public final List<Expr> keys;
+    public final List<Expr> values;
+    public final int line;
+
+    public MapExpr(List<Expr> keys, List<Expr> values, int line) {
+        this.keys = keys;
+        this.values = values;
+        this.line = line;
+    }
+
+    @Override
+    public <R> R accept(ExprVisitor<R> visitor) {
+        return visitor.visitMapExpr(this);
+    }
+}
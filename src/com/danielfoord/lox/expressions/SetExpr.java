@@ -1,16 +1,15 @@
 package com.danielfoord.lox.expressions;
 
-import com.danielfoord.lox.Token;
-
 public class SetExpr extends Expr {
-
     public final Expr object;
-    public final Token name;
+    public final String name;
+    public final int line;
     public final Expr value;
 
-    public SetExpr(Expr object, Token name, Expr value) {
+    public SetExpr(Expr object, String name, int line, Expr value) {
         this.object = object;
         this.name = name;
+        this.line = line;
         this.value = value;
     }
 
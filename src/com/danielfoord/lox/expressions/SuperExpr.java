@@ -1,15 +1,13 @@
 package com.danielfoord.lox.expressions;
 
-import com.danielfoord.lox.Token;
-
 public class SuperExpr extends Expr {
+    public final String method;
+    public final int line;
+    public int depth = GLOBAL; // Filled in by the resolver
 
-    public final Token keyword;
-    public final Token method;
-
-    public SuperExpr(Token keyword, Token method) {
-        this.keyword = keyword;
+    public SuperExpr(String method, int line) {
         this.method = method;
+        this.line = line;
     }
 
     @Override
@@ -1,13 +1,11 @@
 package com.danielfoord.lox.expressions;
 
-import com.danielfoord.lox.Token;
-
 public class ThisExpr extends Expr {
+    public final int line;
+    public int depth = GLOBAL; // Filled in by the resolver
 
-    public final Token keyword;
-
-    public ThisExpr(Token keyword) {
-        this.keyword = keyword;
+    public ThisExpr(int line) {
+        this.line = line;
     }
 
     @Override
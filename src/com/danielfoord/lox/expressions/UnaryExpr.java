@@ -1,13 +1,15 @@
 package com.danielfoord.lox.expressions;
 
-import com.danielfoord.lox.Token;
+import com.danielfoord.lox.TokenType;
 
 public class UnaryExpr extends Expr {
-    public final Token operator;
+    public final TokenType operator;
+    public final int line;
     public final Expr right;
 
-    public UnaryExpr(Token operator, Expr right) {
+    public UnaryExpr(TokenType operator, int line, Expr right) {
         this.operator = operator;
+        this.line = line;
         this.right = right;
     }
 
@@ -15,4 +17,4 @@ public class UnaryExpr extends Expr {
     public <R> R accept(ExprVisitor<R> visitor) {
         return visitor.visitUnaryExpr(this);
     }
-}
\ No newline at end of file
+}
@@ -1,12 +1,13 @@
 package com.danielfoord.lox.expressions;
 
-import com.danielfoord.lox.Token;
-
 public class VariableExpr extends Expr {
-    public final Token name;
+    public final String name;
+    public final int line;
+    public int depth = GLOBAL; // Filled in by the resolver
 
-    public VariableExpr(final Token name) {
+    public VariableExpr(final String name, final int line) {
         this.name = name;
+        this.line = line;
     }
 
     @Override
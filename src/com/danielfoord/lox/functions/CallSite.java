@@ -0,0 +1,19 @@
+package com.danielfoord.lox.functions;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * The callee a call to a global function last found, with its arity already checked against the call.
+ * The version of the globals it was read from is kept so the lookup itself can be skipped until that
+ * binding is replaced. Versions are unique to their environment, so the site doesn't need to hold on to
+ * the globals, and the callee is held weakly, so an AST that outlives its run doesn't keep that run's
+ * globals alive.
+ */
+public final class CallSite extends WeakReference<LoxCallable> {
+    public final Object version;
+
+    public CallSite(LoxCallable callee, Object version) {
+        super(callee);
+        this.version = version;
+    }
+}
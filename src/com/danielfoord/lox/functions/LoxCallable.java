@@ -2,10 +2,31 @@ package com.danielfoord.lox.functions;
 
 import com.danielfoord.lox.Interpreter;
 
-import java.util.List;
-
 public interface LoxCallable {
+    Object[] NO_ARGUMENTS = new Object[0];
+
     int arity();
 
-    Object call(Interpreter interpreter, List<Object> arguments) throws Exception;
-}
\ No newline at end of file
+    Object call(Interpreter interpreter, Object[] arguments) throws Exception;
+
+    // Fixed arity entry points, call sites with up to four arguments use these to avoid building an argument array
+    default Object call0(Interpreter interpreter) throws Exception {
+        return call(interpreter, NO_ARGUMENTS);
+    }
+
+    default Object call1(Interpreter interpreter, Object a0) throws Exception {
+        return call(interpreter, new Object[]{a0});
+    }
+
+    default Object call2(Interpreter interpreter, Object a0, Object a1) throws Exception {
+        return call(interpreter, new Object[]{a0, a1});
+    }
+
+    default Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) throws Exception {
+        return call(interpreter, new Object[]{a0, a1, a2});
+    }
+
+    default Object call4(Interpreter interpreter, Object a0, Object a1, Object a2, Object a3) throws Exception {
+        return call(interpreter, new Object[]{a0, a1, a2, a3});
+    }
+}
@@ -5,8 +5,6 @@ import com.danielfoord.lox.Interpreter;
 import com.danielfoord.lox.LoxInstance;
 import com.danielfoord.lox.statements.FunctionStmt;
 
-import java.util.List;
-
 public class LoxFunction implements LoxCallable {
 
     private final FunctionStmt declaration;
@@ -21,15 +19,88 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public int arity() {
-        return declaration.parameters.size();
+        return declaration.parameters.length;
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
         Environment environment = new Environment(closure);
-        for (var i = 0; i < arity(); i++) {
-            environment.define(declaration.parameters.get(i).lexeme, arguments.get(i));
+        for (var i = 0; i < arguments.length; i++) {
+            environment.define(parameter(i), arguments[i]);
         }
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return execute(interpreter, new Environment(closure));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a0) {
+        Environment environment = new Environment(closure);
+        environment.define(parameter(0), a0);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a0, Object a1) {
+        Environment environment = new Environment(closure);
+        environment.define(parameter(0), a0);
+        environment.define(parameter(1), a1);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) {
+        Environment environment = new Environment(closure);
+        environment.define(parameter(0), a0);
+        environment.define(parameter(1), a1);
+        environment.define(parameter(2), a2);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a0, Object a1, Object a2, Object a3) {
+        Environment environment = new Environment(closure);
+        environment.define(parameter(0), a0);
+        environment.define(parameter(1), a1);
+        environment.define(parameter(2), a2);
+        environment.define(parameter(3), a3);
+        return execute(interpreter, environment);
+    }
+
+    public LoxFunction bind(LoxInstance instance) {
+        Environment env = new Environment(closure);
+        env.define("this", instance);
+        return new LoxFunction(declaration, env, isInitializer);
+    }
+
+    public String getName() {
+        return declaration.name;
+    }
+
+    public int getLine() {
+        return declaration.line;
+    }
+
+    public FunctionStmt getDeclaration() {
+        return declaration;
+    }
+
+    public Environment getClosure() {
+        return closure;
+    }
+
+    public boolean isInitializer() {
+        return isInitializer;
+    }
+
+    private String parameter(int index) {
+        return declaration.parameters[index];
+    }
+
+    private Object execute(Interpreter interpreter, Environment environment) {
         try {
             interpreter.executeBlock(declaration.body, environment);
         } catch (Return returnValue) {
@@ -43,14 +114,8 @@ public class LoxFunction implements LoxCallable {
         return null;
     }
 
-    public LoxFunction bind(LoxInstance instance) {
-        Environment env = new Environment(closure);
-        env.define("this", instance);
-        return new LoxFunction(declaration, env, isInitializer);
-    }
-
     @Override
     public String toString() {
-        return "<fn " + declaration.name.lexeme + ">";
+        return "<fn " + declaration.name + ">";
     }
 }
@@ -4,7 +4,8 @@ public class Return extends RuntimeException {
     public final Object value;
 
     public Return(Object value) {
-        super();
+        // Used for control flow on every return, so no stack trace is captured
+        super(null, null, false, false);
         this.value = value;
     }
 }
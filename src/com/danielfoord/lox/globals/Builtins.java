@@ -0,0 +1,24 @@
+package com.danielfoord.lox.globals;
+
+import com.danielfoord.lox.Interpreter;
+
+import java.io.IOException;
+
+// The natives every script starts with
+public final class Builtins {
+
+    private Builtins() {
+    }
+
+    @LoxNative
+    public static double clock() {
+        return (double) System.currentTimeMillis() / 1000.0;
+    }
+
+    @LoxNative
+    public static String readLine(Interpreter interpreter) throws IOException {
+        // A prompt printed just before has to show up before waiting on the answer
+        interpreter.output().flush();
+        return interpreter.input().readLine();
+    }
+}
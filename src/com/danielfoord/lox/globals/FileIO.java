@@ -0,0 +1,212 @@
+package com.danielfoord.lox.globals;
+
+import com.danielfoord.lox.Float64Array;
+import com.danielfoord.lox.Interpreter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File natives. Files are read and written as UTF-8.
+ *
+ * readFile maps the file and decodes it in one go. openFile returns a handle that nextLine reads one line
+ * at a time, so a log of any size can be processed in constant memory, and nil marks the end.
+ * createFile and appendFile return handles that write and writeLine buffer; close flushes them.
+ * Handles a script forgets to close are closed, and writers flushed, when the run that opened them ends.
+ * mapFloat64Array maps a file of doubles as a Float64Array.
+ *
+ * The command line defines these natives for every script. Embedders and the server don't, since they
+ * give scripts the files of the host; a LoxContext gets them with defineNatives(FileIO.class).
+ */
+public final class FileIO {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private FileIO() {
+    }
+
+    //#region Reading
+    @LoxNative
+    public static String readFile(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("File '" + path + "' is too large to read whole.");
+            return StandardCharsets.UTF_8.decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, size)).toString();
+        } catch (FileSystemException e) {
+            throw failure(path, e);
+        }
+    }
+
+    // Reads and writes the file in place as little endian doubles, flush writes changes through
+    @LoxNative
+    public static Float64Array mapFloat64Array(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size % Double.BYTES != 0)
+                throw new IOException("File '" + path + "' isn't a whole number of doubles.");
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("File '" + path + "' is too large to map.");
+            // The mapping stays valid after the channel is closed
+            return Float64Array.mapped(channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (FileSystemException e) {
+            throw failure(path, e);
+        }
+    }
+
+    @LoxNative
+    public static InputFile openFile(Interpreter interpreter, String path) throws IOException {
+        InputFile file;
+        try {
+            file = new InputFile(interpreter, path, new BufferedReader(new InputStreamReader(
+                    Files.newInputStream(Paths.get(path)), StandardCharsets.UTF_8), BUFFER_SIZE));
+        } catch (FileSystemException e) {
+            throw failure(path, e);
+        }
+        interpreter.opened(file);
+        return file;
+    }
+
+    @LoxNative
+    public static String nextLine(InputFile file) throws IOException {
+        return file.reader().readLine();
+    }
+    //#endregion
+
+    //#region Writing
+    @LoxNative
+    public static OutputFile createFile(Interpreter interpreter, String path) throws IOException {
+        return openWriter(interpreter, path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    @LoxNative
+    public static OutputFile appendFile(Interpreter interpreter, String path) throws IOException {
+        return openWriter(interpreter, path, StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+    }
+
+    @LoxNative
+    public static void write(OutputFile file, String text) throws IOException {
+        file.writer().write(text);
+    }
+
+    @LoxNative
+    public static void writeLine(OutputFile file, String text) throws IOException {
+        BufferedWriter writer = file.writer();
+        writer.write(text);
+        writer.newLine();
+    }
+    //#endregion
+
+    @LoxNative
+    public static void close(FileHandle file) throws IOException {
+        file.close();
+    }
+
+    private static OutputFile openWriter(Interpreter interpreter, String path, OpenOption... options) throws IOException {
+        OutputFile file;
+        try {
+            file = new OutputFile(interpreter, path, new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(Paths.get(path), options), StandardCharsets.UTF_8), BUFFER_SIZE));
+        } catch (FileSystemException e) {
+            throw failure(path, e);
+        }
+        interpreter.opened(file);
+        return file;
+    }
+
+    // The JDK's messages are just the path, say what went wrong
+    private static IOException failure(String path, FileSystemException e) {
+        if (e instanceof NoSuchFileException)
+            return new IOException("No such file '" + path + "'.");
+        if (e instanceof AccessDeniedException)
+            return new IOException("Access denied to '" + path + "'.");
+        return new IOException("Can't open '" + path + "'" + (e.getReason() != null ? ": " + e.getReason() : "") + ".");
+    }
+
+    /**
+     * A file opened by a native. Using one after it's closed is a runtime error.
+     */
+    public abstract static class FileHandle implements Closeable {
+        // Whose run closes the file if the script doesn't
+        final Interpreter owner;
+        final String path;
+        boolean closed = false;
+
+        FileHandle(Interpreter owner, String path) {
+            this.owner = owner;
+            this.path = path;
+        }
+
+        void checkOpen() throws IOException {
+            if (closed)
+                throw new IOException("File '" + path + "' is closed.");
+        }
+    }
+
+    public static final class InputFile extends FileHandle {
+        private final BufferedReader reader;
+
+        InputFile(Interpreter owner, String path, BufferedReader reader) {
+            super(owner, path);
+            this.reader = reader;
+        }
+
+        BufferedReader reader() throws IOException {
+            checkOpen();
+            return reader;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            owner.closed(this);
+            reader.close();
+        }
+
+        @Override
+        public String toString() {
+            return "<file " + path + ">";
+        }
+    }
+
+    public static final class OutputFile extends FileHandle {
+        private final BufferedWriter writer;
+
+        OutputFile(Interpreter owner, String path, BufferedWriter writer) {
+            super(owner, path);
+            this.writer = writer;
+        }
+
+        BufferedWriter writer() throws IOException {
+            checkOpen();
+            return writer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            owner.closed(this);
+            writer.close();
+        }
+
+        @Override
+        public String toString() {
+            return "<file " + path + ">";
+        }
+    }
+}
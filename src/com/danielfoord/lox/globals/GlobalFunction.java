@@ -1,6 +1,9 @@
 package com.danielfoord.lox.globals;
 
-public abstract class GlobalFunction implements GlobalCallable {
+import java.io.Serializable;
+
+// Natives hold no state, so a snapshot of the globals can carry them as they are
+public abstract class GlobalFunction implements GlobalCallable, Serializable {
     @Override
     public String toString() {
         return "<fn natve::" + this.getName() + ">";
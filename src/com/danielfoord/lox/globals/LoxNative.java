@@ -0,0 +1,16 @@
+package com.danielfoord.lox.globals;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a public static method as a Lox native, see {@link Natives}.
+ * The native is named after the method unless a name is given.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface LoxNative {
+    String value() default "";
+}
@@ -0,0 +1,129 @@
+package com.danielfoord.lox.globals;
+
+import com.danielfoord.lox.Interpreter;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+
+/**
+ * A native bound to an annotated static method. The handle takes the interpreter and one Object per
+ * parameter and converts each argument to the parameter's type itself, so calls with up to four
+ * arguments pass them straight through without an argument array.
+ */
+public final class NativeFunction extends GlobalFunction {
+
+    private final Class<?> holder;
+    private final String name;
+    private final int arity;
+    // (Interpreter, Object x arity) -> Object
+    private final transient MethodHandle invoker;
+    // (Interpreter, Object[]) -> Object
+    private final transient MethodHandle spreader;
+
+    NativeFunction(Class<?> holder, String name, MethodHandle invoker) {
+        this.holder = holder;
+        this.name = name;
+        this.arity = invoker.type().parameterCount() - 1;
+        this.invoker = invoker;
+        this.spreader = invoker.asSpreader(Object[].class, arity);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) throws Exception {
+        try {
+            return (Object) spreader.invokeExact(interpreter, arguments);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) throws Exception {
+        try {
+            return (Object) invoker.invokeExact(interpreter);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a0) throws Exception {
+        try {
+            return (Object) invoker.invokeExact(interpreter, a0);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a0, Object a1) throws Exception {
+        try {
+            return (Object) invoker.invokeExact(interpreter, a0, a1);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) throws Exception {
+        try {
+            return (Object) invoker.invokeExact(interpreter, a0, a1, a2);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a0, Object a1, Object a2, Object a3) throws Exception {
+        try {
+            return (Object) invoker.invokeExact(interpreter, a0, a1, a2, a3);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static Exception rethrow(Throwable e) {
+        if (e instanceof Error)
+            throw (Error) e;
+        if (e instanceof Exception)
+            return (Exception) e;
+        return new Exception(e.getMessage(), e);
+    }
+
+    // Handles can't be serialized, snapshots name the native instead and bind it again when read
+    private Object writeReplace() {
+        return new Reference(holder.getName(), name);
+    }
+
+    private static final class Reference implements Serializable {
+        private final String holder;
+        private final String name;
+
+        Reference(String holder, String name) {
+            this.holder = holder;
+            this.name = name;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                NativeFunction function = Natives.of(Class.forName(holder)).get(name);
+                if (function != null)
+                    return function;
+            } catch (ClassNotFoundException ignored) {
+            }
+            throw new InvalidObjectException("No native '" + name + "' in " + holder);
+        }
+    }
+}
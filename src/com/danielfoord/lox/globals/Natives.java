@@ -0,0 +1,172 @@
+package com.danielfoord.lox.globals;
+
+import com.danielfoord.lox.Environment;
+import com.danielfoord.lox.Interpreter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Binds the public static methods of a class marked with {@link LoxNative} as natives.
+ *
+ * Parameters may be double, int, boolean, String, Object or a class of the native's own, such as a handle
+ * it returned earlier, and a native that needs the interpreter takes it as an extra first parameter. Arguments of the wrong type fail the call with a runtime error.
+ * Numeric results become numbers, boolean results booleans, and void methods return nil.
+ * Each class is bound once and its natives are shared, they hold no state of their own.
+ */
+public final class Natives {
+
+    private static final MethodHandle TO_NUMBER;
+    private static final MethodHandle TO_INTEGER;
+    private static final MethodHandle TO_BOOLEAN;
+    private static final MethodHandle TO_STRING;
+    private static final MethodHandle TO_INSTANCE;
+
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            TO_NUMBER = lookup.findStatic(Natives.class, "toNumber", MethodType.methodType(double.class, Object.class, String.class));
+            TO_INTEGER = lookup.findStatic(Natives.class, "toInteger", MethodType.methodType(int.class, Object.class, String.class));
+            TO_BOOLEAN = lookup.findStatic(Natives.class, "toBoolean", MethodType.methodType(boolean.class, Object.class, String.class));
+            TO_STRING = lookup.findStatic(Natives.class, "toString", MethodType.methodType(String.class, Object.class, String.class));
+            TO_INSTANCE = lookup.findStatic(Natives.class, "toInstance", MethodType.methodType(Object.class, Object.class, Class.class, String.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final ClassValue<Map<String, NativeFunction>> BOUND = new ClassValue<>() {
+        @Override
+        protected Map<String, NativeFunction> computeValue(Class<?> holder) {
+            return bind(holder);
+        }
+    };
+
+    private Natives() {
+    }
+
+    public static void define(Environment globals, Class<?> holder) {
+        for (NativeFunction function : of(holder).values()) {
+            globals.define(function.getName(), function);
+        }
+    }
+
+    // The natives of a class by name, throws IllegalArgumentException when a marked method can't be bound
+    public static Map<String, NativeFunction> of(Class<?> holder) {
+        return BOUND.get(holder);
+    }
+
+    private static Map<String, NativeFunction> bind(Class<?> holder) {
+        Map<String, NativeFunction> natives = new LinkedHashMap<>();
+        Method[] methods = holder.getDeclaredMethods();
+        Arrays.sort(methods, Comparator.comparing(Method::getName));
+        for (Method method : methods) {
+            LoxNative annotation = method.getAnnotation(LoxNative.class);
+            if (annotation == null) continue;
+
+            String name = annotation.value().isEmpty() ? method.getName() : annotation.value();
+            if (natives.containsKey(name))
+                throw new IllegalArgumentException("Native '" + name + "' is declared twice in " + holder.getName());
+            natives.put(name, new NativeFunction(holder, name, adapt(method, name)));
+        }
+        return Collections.unmodifiableMap(natives);
+    }
+
+    // Turns the method into (Interpreter, Object x arity) -> Object
+    private static MethodHandle adapt(Method method, String name) {
+        if (!Modifier.isStatic(method.getModifiers()) || !Modifier.isPublic(method.getModifiers()))
+            throw new IllegalArgumentException("Native '" + name + "' must be a public static method");
+
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Native '" + name + "' is not accessible", e);
+        }
+
+        Class<?>[] parameters = method.getParameterTypes();
+        boolean takesInterpreter = parameters.length > 0 && parameters[0] == Interpreter.class;
+        if (!takesInterpreter)
+            handle = MethodHandles.dropArguments(handle, 0, Interpreter.class);
+
+        for (int i = takesInterpreter ? 1 : 0; i < parameters.length; i++) {
+            MethodHandle conversion = conversion(parameters[i], name);
+            if (conversion != null)
+                handle = MethodHandles.filterArguments(handle, takesInterpreter ? i : i + 1, conversion);
+        }
+
+        Class<?> result = method.getReturnType();
+        if (result.isPrimitive() && result != void.class && result != boolean.class) {
+            if (result == char.class)
+                throw new IllegalArgumentException("Native '" + name + "' can't return a char");
+            // Every number in Lox is a double
+            handle = handle.asType(handle.type().changeReturnType(double.class));
+        }
+
+        int arity = handle.type().parameterCount() - 1;
+        return handle.asType(MethodType.genericMethodType(arity).insertParameterTypes(0, Interpreter.class));
+    }
+
+    private static MethodHandle conversion(Class<?> parameter, String name) {
+        MethodHandle conversion;
+        if (parameter == double.class)
+            conversion = TO_NUMBER;
+        else if (parameter == int.class)
+            conversion = TO_INTEGER;
+        else if (parameter == boolean.class)
+            conversion = TO_BOOLEAN;
+        else if (parameter == String.class)
+            conversion = TO_STRING;
+        else if (parameter == Object.class)
+            return null;
+        else if (!parameter.isPrimitive())
+            return MethodHandles.insertArguments(TO_INSTANCE, 1, parameter, name)
+                    .asType(MethodType.methodType(parameter, Object.class));
+        else
+            throw new IllegalArgumentException("Native '" + name + "' takes an unsupported " + parameter.getName());
+        return MethodHandles.insertArguments(conversion, 1, name);
+    }
+
+    //#region Conversions
+    private static double toNumber(Object value, String name) {
+        if (value instanceof Double)
+            return (double) value;
+        throw new IllegalArgumentException("Expected number argument to '" + name + "'");
+    }
+
+    private static int toInteger(Object value, String name) {
+        if (value instanceof Double) {
+            double number = (double) value;
+            if (number == (int) number)
+                return (int) number;
+        }
+        throw new IllegalArgumentException("Expected integer argument to '" + name + "'");
+    }
+
+    private static boolean toBoolean(Object value, String name) {
+        if (value instanceof Boolean)
+            return (boolean) value;
+        throw new IllegalArgumentException("Expected boolean argument to '" + name + "'");
+    }
+
+    private static String toString(Object value, String name) {
+        if (value instanceof String)
+            return (String) value;
+        throw new IllegalArgumentException("Expected string argument to '" + name + "'");
+    }
+
+    private static Object toInstance(Object value, Class<?> type, String name) {
+        if (type.isInstance(value))
+            return value;
+        throw new IllegalArgumentException("Expected " + type.getSimpleName() + " argument to '" + name + "'");
+    }
+    //#endregion
+}
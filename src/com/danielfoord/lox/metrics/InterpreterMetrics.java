@@ -0,0 +1,194 @@
+package com.danielfoord.lox.metrics;
+
+import com.danielfoord.lox.CallStack;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide runtime counters, published over JMX as com.danielfoord.lox:type=Interpreter.
+ * Every counter is a LongAdder so interpreters on different threads don't contend on a single cache line.
+ * Interpreters count calls, environments, instances and statements in fields of their own and add them
+ * here once a run ends, the hot paths don't touch shared state.
+ */
+public class InterpreterMetrics implements InterpreterMetricsMBean {
+
+    private static final InterpreterMetrics instance = new InterpreterMetrics();
+    private static volatile boolean registered = false;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder environments = new LongAdder();
+    private final LongAdder instances = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder runtimeErrors = new LongAdder();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder scanNanos = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder resolveNanos = new LongAdder();
+    private final LongAdder executionNanos = new LongAdder();
+    // The call stacks of live interpreters, the call depth is read from them. Weak, so an interpreter
+    // nobody holds any more drops out
+    private final Set<CallStack> stacks = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private InterpreterMetrics() {
+    }
+
+    public static InterpreterMetrics get() {
+        return instance;
+    }
+
+    public static InterpreterMetrics register() {
+        if (registered) return instance;
+
+        synchronized (InterpreterMetrics.class) {
+            if (!registered) {
+                registered = true;
+                // Bringing up the platform MBean server costs more than running a small script, keep it off the startup path
+                Thread thread = new Thread(InterpreterMetrics::registerMBean, "jlox-metrics");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+        return instance;
+    }
+
+    private static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(instance, new ObjectName("com.danielfoord.lox:type=Interpreter"));
+        } catch (JMException error) {
+            System.err.println("Unable to register interpreter metrics: " + error.getMessage());
+        }
+    }
+
+    //#region Recording
+    public void track(CallStack stack) {
+        stacks.add(stack);
+    }
+
+    public void addCalls(long count) {
+        calls.add(count);
+    }
+
+    public void addEnvironments(long count) {
+        environments.add(count);
+    }
+
+    public void addInstances(long count) {
+        instances.add(count);
+    }
+
+    public void addAllocatedBytes(long bytes) {
+        allocatedBytes.add(bytes);
+    }
+
+    public void runtimeError() {
+        runtimeErrors.increment();
+    }
+
+    public void addStatements(long count) {
+        statements.add(count);
+    }
+
+    public void addScanTime(long nanos) {
+        scanNanos.add(nanos);
+    }
+
+    public void addParseTime(long nanos) {
+        parseNanos.add(nanos);
+    }
+
+    public void addResolveTime(long nanos) {
+        resolveNanos.add(nanos);
+    }
+
+    public void addExecutionTime(long nanos) {
+        executionNanos.add(nanos);
+    }
+    //#endregion
+
+    //#region MBean
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getCallDepth() {
+        long depth = 0;
+        synchronized (stacks) {
+            for (CallStack stack : stacks) depth += stack.calls();
+        }
+        return depth;
+    }
+
+    @Override
+    public long getEnvironmentAllocations() {
+        return environments.sum();
+    }
+
+    @Override
+    public long getInstanceCreations() {
+        return instances.sum();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    @Override
+    public long getRuntimeErrors() {
+        return runtimeErrors.sum();
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return statements.sum();
+    }
+
+    @Override
+    public double getScanTimeMillis() {
+        return toMillis(scanNanos);
+    }
+
+    @Override
+    public double getParseTimeMillis() {
+        return toMillis(parseNanos);
+    }
+
+    @Override
+    public double getResolveTimeMillis() {
+        return toMillis(resolveNanos);
+    }
+
+    @Override
+    public double getExecutionTimeMillis() {
+        return toMillis(executionNanos);
+    }
+
+    @Override
+    public void reset() {
+        // The call depth is a gauge, not a counter, so it's left alone
+        calls.reset();
+        environments.reset();
+        instances.reset();
+        allocatedBytes.reset();
+        runtimeErrors.reset();
+        statements.reset();
+        scanNanos.reset();
+        parseNanos.reset();
+        resolveNanos.reset();
+        executionNanos.reset();
+    }
+
+    private static double toMillis(LongAdder nanos) {
+        return nanos.sum() / 1_000_000.0;
+    }
+    //#endregion
+}
@@ -0,0 +1,28 @@
+package com.danielfoord.lox.metrics;
+
+public interface InterpreterMetricsMBean {
+    long getCalls();
+
+    long getCallDepth();
+
+    long getEnvironmentAllocations();
+
+    long getInstanceCreations();
+
+    // Approximate, as counted against the memory limit of each run
+    long getAllocatedBytes();
+
+    long getRuntimeErrors();
+
+    long getStatementsExecuted();
+
+    double getScanTimeMillis();
+
+    double getParseTimeMillis();
+
+    double getResolveTimeMillis();
+
+    double getExecutionTimeMillis();
+
+    void reset();
+}
@@ -0,0 +1,63 @@
+package com.danielfoord.lox.metrics;
+
+import com.danielfoord.lox.CallStack;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Samples an interpreter's Lox call stack from a background thread and writes the result as folded stacks,
+ * one "frame;frame;frame count" line per distinct stack, which flame graph tools read directly.
+ */
+public class SamplingProfiler {
+
+    private final CallStack stack;
+    private final long intervalMillis;
+    private final Map<String, Long> samples = new HashMap<>();
+    private Thread thread;
+    private volatile boolean running;
+
+    public SamplingProfiler(CallStack stack, long intervalMillis) {
+        this.stack = stack;
+        this.intervalMillis = Math.max(1, intervalMillis);
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this::sample, "jlox-profiler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void write(Path path) throws IOException {
+        try (var writer = new PrintWriter(Files.newBufferedWriter(path))) {
+            for (Map.Entry<String, Long> entry : samples.entrySet()) {
+                writer.println(entry.getKey() + " " + entry.getValue());
+            }
+        }
+    }
+
+    private void sample() {
+        while (running) {
+            samples.merge(stack.fold(), 1L, Long::sum);
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException error) {
+                return;
+            }
+        }
+    }
+}
@@ -1,18 +1,19 @@
 package com.danielfoord.lox.statements;
 
-import com.danielfoord.lox.Token;
 import com.danielfoord.lox.expressions.VariableExpr;
 
 import java.util.List;
 
 public class ClassStmt extends Stmt {
 
-    public final Token name;
+    public final String name;
+    public final int line;
     public final VariableExpr superClass;
     public final List<Stmt> methods;
 
-    public ClassStmt(Token name, VariableExpr superClass, List<Stmt> methods) {
+    public ClassStmt(String name, int line, VariableExpr superClass, List<Stmt> methods) {
         this.name = name;
+        this.line = line;
         this.superClass = superClass;
         this.methods = methods;
     }
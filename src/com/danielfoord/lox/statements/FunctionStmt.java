@@ -1,17 +1,25 @@
 package com.danielfoord.lox.statements;
 
-import com.danielfoord.lox.Token;
+import com.danielfoord.lox.expressions.VariableExpr;
 
 import java.util.List;
 
 public class FunctionStmt extends Stmt {
-    public final Token name;
-    public final List<Token> parameters;
+    public final String name;
+    public final int line;
+    public final String[] parameters;
+    public final int[] parameterLines; // Only used for diagnostics
     public final List<Stmt> body;
+    public boolean assignsOutside = false; // Filled in by the resolver
+    // Also filled in by the resolver, the variables declared outside this function that it calls, with depths
+    // counted from its closure
+    public List<VariableExpr> calls = List.of();
 
-    public FunctionStmt(Token name, List<Token> parameters, List<Stmt> body) {
+    public FunctionStmt(String name, int line, String[] parameters, int[] parameterLines, List<Stmt> body) {
         this.name = name;
+        this.line = line;
         this.parameters = parameters;
+        this.parameterLines = parameterLines;
         this.body = body;
     }
 
@@ -1,14 +1,13 @@
 package com.danielfoord.lox.statements;
 
-import com.danielfoord.lox.Token;
 import com.danielfoord.lox.expressions.Expr;
 
 public class ReturnStmt extends Stmt {
-    public final Token keyword;
+    public final int line;
     public final Expr value;
 
-    public ReturnStmt(Token keyword, Expr value) {
-        this.keyword = keyword;
+    public ReturnStmt(int line, Expr value) {
+        this.line = line;
         this.value = value;
     }
 
@@ -1,15 +1,16 @@
 package com.danielfoord.lox.statements;
 
-import com.danielfoord.lox.Token;
 import com.danielfoord.lox.expressions.Expr;
 
 public class VarStmt extends Stmt {
 
-    public final Token name;
+    public final String name;
+    public final int line;
     public final Expr initializer;
 
-    public VarStmt(Token name, Expr initializer) {
+    public VarStmt(String name, int line, Expr initializer) {
         this.name = name;
+        this.line = line;
         this.initializer = initializer;
     }
 
@@ -5,9 +5,11 @@ import com.danielfoord.lox.expressions.Expr;
 public class WhileStmt extends Stmt {
     public final Expr condition;
     public final Stmt statement;
+    public final int line;
 
-    public WhileStmt(Expr condition, Stmt statement) {
+    public WhileStmt(Expr condition, Stmt statement, int line) {
         this.condition = condition;
+        this.line = line;
         this.statement = statement;
     }
 
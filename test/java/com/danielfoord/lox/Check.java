@@ -0,0 +1,35 @@
+package com.danielfoord.lox;
+
+/**
+ * Checks for the Java tests, which run without a test framework through test/java/run.
+ */
+final class Check {
+
+    private Check() {
+    }
+
+    static void equal(Object expected, Object actual, String what) {
+        if (expected == null ? actual != null : !expected.equals(actual))
+            throw new AssertionError(what + ": expected <" + expected + "> but was <" + actual + ">");
+    }
+
+    static void same(Object expected, Object actual, String what) {
+        if (expected != actual)
+            throw new AssertionError(what + ": expected the same object");
+    }
+
+    static void that(boolean condition, String what) {
+        if (!condition)
+            throw new AssertionError(what);
+    }
+
+    // Runs a test and prints its name once it passes
+    static void run(String name, Body test) throws Exception {
+        test.run();
+        System.out.println("ok " + name);
+    }
+
+    interface Body {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,67 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.globals.FileIO;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class FileIOTest {
+
+    public static void main(String[] args) throws Exception {
+        Check.run("contexts have no file natives unless they're defined", FileIOTest::optIn);
+        Check.run("a writer left open is flushed when its run ends", FileIOTest::flushedAtRunEnd);
+        Check.run("a file left open is closed for the next run", FileIOTest::closedForNextRun);
+    }
+
+    private static void optIn() {
+        var engine = new LoxEngine();
+        LoxContext context = engine.newContext(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            context.run(engine.compile("readFile(\"jlox.iml\");"));
+            throw new AssertionError("expected readFile to be undefined");
+        } catch (RuntimeError expected) {
+            Check.equal("Undefined variable 'readFile'.", expected.getMessage(), "error");
+        }
+    }
+
+    private static void flushedAtRunEnd() throws IOException {
+        Path file = Files.createTempFile("jlox", ".txt");
+        try {
+            LoxContext context = contextWithFiles();
+            context.define("path", file.toString());
+            context.run(new LoxEngine().compile("var out = createFile(path); write(out, \"kept\");"));
+            Check.equal("kept", Files.readString(file), "contents");
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static void closedForNextRun() throws IOException {
+        Path file = Files.createTempFile("jlox", ".txt");
+        try {
+            var engine = new LoxEngine();
+            LoxContext context = contextWithFiles();
+            context.define("path", file.toString());
+            context.run(engine.compile("var out = createFile(path);"));
+            try {
+                context.run(engine.compile("write(out, \"late\");"));
+                throw new AssertionError("expected the file to be closed");
+            } catch (RuntimeError expected) {
+                Check.equal("File '" + file + "' is closed.", expected.getMessage(), "error");
+            }
+            Check.equal("", Files.readString(file), "contents");
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static LoxContext contextWithFiles() {
+        LoxContext context = new LoxEngine().newContext(new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8));
+        context.defineNatives(FileIO.class);
+        return context;
+    }
+}
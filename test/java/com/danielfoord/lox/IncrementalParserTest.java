@@ -0,0 +1,137 @@
+package com.danielfoord.lox;
+
+import com.danielfoord.lox.statements.FunctionStmt;
+import com.danielfoord.lox.statements.ReturnStmt;
+import com.danielfoord.lox.statements.Stmt;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class IncrementalParserTest {
+
+    private static final String SOURCE = "fun a() {\n  return 1;\n}\nfun b() {\n  return 2;\n}\nprint b();\n";
+
+    public static void main(String[] args) throws Exception {
+        Check.run("edit returns only the declaration it touches", IncrementalParserTest::editReturnsChanged);
+        Check.run("declarations after an edit are reused", IncrementalParserTest::reusesFollowing);
+        Check.run("adding lines shifts the declarations after them", IncrementalParserTest::shiftsLines);
+        Check.run("removing lines shifts them back", IncrementalParserTest::shiftsLinesBack);
+        Check.run("runtime errors report shifted lines", IncrementalParserTest::runtimeErrorLine);
+        Check.run("an edit that opens a block takes in the next declaration", IncrementalParserTest::growsRegion);
+        Check.run("a syntax error is cleared once it's fixed", IncrementalParserTest::recoversFromError);
+        Check.run("replacing the source edits only what differs", IncrementalParserTest::replaceSource);
+    }
+
+    private static void editReturnsChanged() {
+        var parser = new IncrementalParser(SOURCE, quiet());
+        List<Stmt> changed = parser.edit(SOURCE.indexOf("1"), 1, "10");
+
+        Check.equal(1, changed.size(), "changed declarations");
+        Check.equal("a", ((FunctionStmt) changed.get(0)).name, "changed function");
+        Check.equal(SOURCE.replace("1", "10"), parser.source(), "source");
+        Check.that(!parser.hadError(), "no errors");
+    }
+
+    private static void reusesFollowing() {
+        var parser = new IncrementalParser(SOURCE, quiet());
+        List<Stmt> before = parser.statements();
+        parser.edit(SOURCE.indexOf("1"), 1, "10");
+        List<Stmt> after = parser.statements();
+
+        Check.equal(3, after.size(), "declarations");
+        Check.that(before.get(0) != after.get(0), "edited declaration is parsed again");
+        Check.same(before.get(1), after.get(1), "function after the edit");
+        Check.same(before.get(2), after.get(2), "statement after the edit");
+        Check.equal(0, parser.moved().size(), "moved declarations");
+    }
+
+    private static void shiftsLines() {
+        var parser = new IncrementalParser(SOURCE, quiet());
+        FunctionStmt b = (FunctionStmt) parser.statements().get(1);
+        List<Stmt> changed = parser.edit(SOURCE.indexOf("  return 1;"), 0, "  print 0;\n  print 0;\n");
+
+        FunctionStmt shifted = (FunctionStmt) parser.statements().get(1);
+        Check.equal(1, changed.size(), "changed declarations");
+        Check.same(shifted, parser.moved().get(b), "moved function");
+        Check.equal(6, shifted.line, "function line");
+        Check.equal(7, ((ReturnStmt) shifted.body.get(0)).line, "return line");
+        Check.equal(4, b.line, "original function line");
+        Check.equal(5, ((ReturnStmt) b.body.get(0)).line, "original return line");
+    }
+
+    private static void shiftsLinesBack() {
+        var parser = new IncrementalParser(SOURCE, quiet());
+        FunctionStmt b = (FunctionStmt) parser.statements().get(1);
+        parser.edit(SOURCE.indexOf("{") + 1, "\n  return 1;".length(), "");
+
+        Check.equal("fun a() {\n}\n", parser.source().substring(0, parser.source().indexOf("fun b")), "edited function");
+        FunctionStmt shifted = (FunctionStmt) parser.statements().get(1);
+        Check.same(shifted, parser.moved().get(b), "moved function");
+        Check.equal(3, shifted.line, "function line");
+        Check.equal(4, ((ReturnStmt) shifted.body.get(0)).line, "return line");
+        Check.equal(4, b.line, "original function line");
+    }
+
+    private static void runtimeErrorLine() {
+        String source = "fun a() {}\nfun fail() {\n  return nil + 1;\n}\nfail();\n";
+        var parser = new IncrementalParser(source, quiet());
+        parser.edit(0, 0, "// one\n// two\n");
+
+        var interpreter = new Interpreter(quiet(), OutputSink.of(new PrintStream(new ByteArrayOutputStream())),
+                new BufferedReader(Reader.nullReader()));
+        try {
+            interpreter.run(parser.statements());
+            throw new AssertionError("expected a runtime error");
+        } catch (RuntimeError error) {
+            Check.equal(5, error.line, "error line");
+        }
+    }
+
+    private static void growsRegion() {
+        var parser = new IncrementalParser(SOURCE, quiet());
+        // Removing a's closing brace makes b part of a's body until it's put back
+        int brace = SOURCE.indexOf("}\n");
+        parser.edit(brace, 1, "");
+        Check.that(parser.hadError(), "unclosed block is an error");
+
+        List<Stmt> changed = parser.edit(brace, 0, "}");
+        Check.that(!parser.hadError(), "no errors once the brace is back");
+        Check.equal(SOURCE, parser.source(), "source");
+        Check.equal(3, parser.statements().size(), "declarations");
+        Check.that(!changed.isEmpty(), "fixed declarations are returned");
+    }
+
+    private static void recoversFromError() {
+        var reporter = quiet();
+        var parser = new IncrementalParser(SOURCE, reporter);
+        parser.edit(SOURCE.indexOf("return 2;") + 8, 1, "");
+        Check.that(parser.hadError(), "missing semicolon is an error");
+
+        reporter.hadError = false;
+        List<Stmt> changed = parser.edit(SOURCE.indexOf("return 2;") + 8, 0, ";");
+        Check.that(!parser.hadError(), "no errors once fixed");
+        Check.equal(1, changed.size(), "changed declarations");
+        Check.equal("b", ((FunctionStmt) changed.get(0)).name, "changed function");
+    }
+
+    private static void replaceSource() {
+        var parser = new IncrementalParser(SOURCE, quiet());
+        Stmt a = parser.statements().get(0);
+        Stmt print = parser.statements().get(2);
+        List<Stmt> changed = parser.replaceSource(SOURCE.replace("return 2;", "var two = 2;\n  return two;"));
+
+        Check.equal(1, changed.size(), "changed declarations");
+        Check.equal("b", ((FunctionStmt) changed.get(0)).name, "changed function");
+        Check.same(a, parser.statements().get(0), "function before the edit");
+        Check.same(parser.moved().get(print), parser.statements().get(2), "statement after the edit");
+        Check.equal(0, parser.replaceSource(parser.source()).size(), "changes when nothing changed");
+    }
+
+    private static ErrorReporter quiet() {
+        return new ErrorReporter(new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,92 @@
+package com.danielfoord.lox;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+public class LoxContextTest {
+
+    public static void main(String[] args) throws Exception {
+        Check.run("a program runs after a prelude in the same context", LoxContextTest::preludeThenProgram);
+        Check.run("a context runs again after a failed run", LoxContextTest::runAfterFailure);
+        Check.run("REPL entries run one after another", LoxContextTest::replEntries);
+        Check.run("a task nobody joined stops when its run ends", LoxContextTest::unjoinedTaskStops);
+        Check.run("tasks read globals while the script defines more", LoxContextTest::globalsDefinedWhileTasksRead);
+    }
+
+    private static void preludeThenProgram() {
+        var engine = new LoxEngine();
+        var out = new ByteArrayOutputStream();
+        LoxContext context = engine.newContext(new PrintStream(out, true, StandardCharsets.UTF_8));
+
+        context.run(engine.compile("fun sq(x) { return x * x; }"));
+        context.run(engine.compile("for (var i = 0; i < 3; i = i + 1) print sq(i + 2);"));
+        context.run(engine.compile("print sq(3);"));
+        Check.equal("4\n9\n16\n9\n", out.toString(StandardCharsets.UTF_8), "output");
+    }
+
+    private static void runAfterFailure() {
+        var engine = new LoxEngine();
+        var out = new ByteArrayOutputStream();
+        LoxContext context = engine.newContext(new PrintStream(out, true, StandardCharsets.UTF_8));
+
+        try {
+            context.run(engine.compile("print nil + 1;"));
+            throw new AssertionError("expected a runtime error");
+        } catch (RuntimeError expected) {
+            // The next run starts clean
+        }
+        context.run(engine.compile("fun f(a) { return a + 1; } print f(1);"));
+        Check.equal("2\n", out.toString(StandardCharsets.UTF_8), "output");
+    }
+
+    private static void unjoinedTaskStops() throws InterruptedException {
+        var engine = new LoxEngine();
+        LoxContext context = engine.newContext(new PrintStream(new ByteArrayOutputStream()));
+
+        context.run(engine.compile("fun spin() { while (true) {} } var task = spawn(spin);"));
+        var task = (LoxTask) context.get("task");
+        for (int i = 0; i < 100 && !task.isDone(); i++) {
+            Thread.sleep(50);
+        }
+        Check.that(task.isDone(), "task stopped");
+        context.run(engine.compile("print task.done();"));
+    }
+
+    private static void globalsDefinedWhileTasksRead() {
+        var engine = new LoxEngine();
+        var out = new ByteArrayOutputStream();
+        LoxContext context = engine.newContext(new PrintStream(out, true, StandardCharsets.UTF_8));
+        // Each definition below can grow the global scope while the tasks look up step and limit
+        var source = new StringBuilder("var step = 1; var limit = 20000;"
+                + "fun count() { var n = 0; while (n < limit) n = n + step; return n; }"
+                + "var tasks = []; for (var i = 0; i < 4; i = i + 1) tasks.push(spawn(count));");
+        for (int i = 0; i < 2000; i++) {
+            source.append("var g").append(i).append(" = ").append(i).append(';');
+        }
+        source.append("var total = 0; for (var i = 0; i < 4; i = i + 1) total = total + tasks[i].join(); print total;");
+
+        context.run(engine.compile(source.toString()));
+        Check.equal("80000\n", out.toString(StandardCharsets.UTF_8), "output");
+    }
+
+    private static void replEntries() {
+        var out = new ByteArrayOutputStream();
+        var errors = new ByteArrayOutputStream();
+        var reporter = new ErrorReporter(new PrintStream(errors, true, StandardCharsets.UTF_8));
+        var interpreter = new Interpreter(reporter, OutputSink.of(new PrintStream(out, true, StandardCharsets.UTF_8)),
+                new BufferedReader(Reader.nullReader()));
+        var session = new ReplSession(reporter, interpreter);
+
+        session.feed("fun f(a) {");
+        session.feed("  return a + 1;");
+        session.feed("}");
+        session.feed("print f(1);");
+        session.feed("while (false) {}");
+        session.feed("print f(f(1));");
+        Check.equal("", errors.toString(StandardCharsets.UTF_8), "errors");
+        Check.equal("2\n3\n", out.toString(StandardCharsets.UTF_8), "output");
+    }
+}
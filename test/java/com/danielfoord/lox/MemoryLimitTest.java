@@ -0,0 +1,80 @@
+package com.danielfoord.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+public class MemoryLimitTest {
+
+    private static final long LIMIT = 1 << 20;
+
+    public static void main(String[] args) throws Exception {
+        Check.run("a long loop that keeps nothing stays under the limit", MemoryLimitTest::longLoopPasses);
+        Check.run("calls and methods that keep nothing stay under the limit", MemoryLimitTest::callsPass);
+        Check.run("parallel callbacks that keep nothing stay under the limit", MemoryLimitTest::parallelPasses);
+        Check.run("a growing list fails", MemoryLimitTest::growingListFails);
+        Check.run("a growing chain of instances fails", MemoryLimitTest::growingInstancesFail);
+        Check.run("a run after one that ran out starts with nothing held", MemoryLimitTest::runAfterOutOfMemory);
+    }
+
+    private static void longLoopPasses() {
+        Check.equal("20000\n", run("var total = 0; var last;"
+                + "for (var i = 0; i < 20000; i = i + 1) { var line = \"item \" ++ i; last = line; total = total + 1; }"
+                + "print total;"), "output");
+    }
+
+    private static void callsPass() {
+        Check.equal("done\n", run("class Point { init(x) { this.x = x; } twice() { return this.x * 2; } }"
+                + "fun make(i) { var p = Point(i); return p.twice(); }"
+                + "for (var i = 0; i < 50000; i = i + 1) make(i);"
+                + "print \"done\";"), "output");
+    }
+
+    private static void parallelPasses() {
+        Check.equal("2000\n", run("fun work(x) { var s = \"\"; for (var i = 0; i < 200; i = i + 1) s = \"x\" ++ (x + i); return s; }"
+                + "print parallelMap(2000, work).length();"), "output");
+    }
+
+    private static void growingListFails() {
+        expectOutOfMemory("var kept = []; for (var i = 0; i < 200000; i = i + 1) kept.push(\"item \" ++ i);");
+    }
+
+    private static void growingInstancesFail() {
+        expectOutOfMemory("class Node { init(next) { this.next = next; } }"
+                + "var head = nil; for (var i = 0; i < 200000; i = i + 1) head = Node(head);");
+    }
+
+    private static void runAfterOutOfMemory() {
+        var engine = new LoxEngine();
+        var out = new ByteArrayOutputStream();
+        LoxContext context = engine.newContext(new PrintStream(out, true, StandardCharsets.UTF_8));
+        context.setMemoryLimit(LIMIT);
+
+        try {
+            context.run(engine.compile("var kept = []; for (var i = 0; i < 200000; i = i + 1) kept.push(i ++ \"\");"));
+            throw new AssertionError("expected to run out of memory");
+        } catch (RuntimeError expected) {
+            // The list is still a global, the next run drops it
+        }
+        context.run(engine.compile("kept = nil; var n = 0; for (var i = 0; i < 20000; i = i + 1) { var s = \"x\" ++ i; kept = s; n = n + 1; } print n;"));
+        Check.equal("20000\n", out.toString(StandardCharsets.UTF_8), "output");
+    }
+
+    private static String run(String source) {
+        var engine = new LoxEngine();
+        var out = new ByteArrayOutputStream();
+        LoxContext context = engine.newContext(new PrintStream(out, true, StandardCharsets.UTF_8));
+        context.setMemoryLimit(LIMIT);
+        context.run(engine.compile(source));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void expectOutOfMemory(String source) {
+        try {
+            run(source);
+            throw new AssertionError("expected to run out of memory");
+        } catch (RuntimeError expected) {
+            Check.equal("Execution ran out of memory.", expected.getMessage(), "error");
+        }
+    }
+}